@@ -26,6 +26,20 @@ public class ServerGUI extends Frame implements Observer
    * The default port to listen on.
    */
   final public static int DEFAULT_PORT = 5555;
+
+  /**
+   * The number of pending connections the operating system will queue
+   * while the server is busy accepting others.  OCSF's default of 10
+   * refuses clients when many of them connect at once.
+   */
+  final public static int DEFAULT_BACKLOG = 1024;
+
+  /**
+   * The number of lines of messages the server window keeps.  Older
+   * lines are dropped, so the window uses the same memory however long
+   * the server runs.
+   */
+  final public static int DEFAULT_LOG_LINES = 5000;
   
   
   //Instance variables **********************************************
@@ -39,7 +53,7 @@ public class ServerGUI extends Frame implements Observer
   * The objects that will be used in the frame
   * Added in Phase 5
   */
-  TextArea serverText = new TextArea("");
+  LogView serverText = new LogView(DEFAULT_LOG_LINES);
   TextField serverInput = new TextField();
 
   StringList listOfClients = new StringList();
@@ -78,6 +92,10 @@ public class ServerGUI extends Frame implements Observer
     server = new EchoServer(ooserver);
     server.addObserver((Observer)this);
 
+    // The server's events are passed to update on the AWT event
+    // thread, in batches, rather than on the thread that produced them
+    server.setEventDispatcher(EventQueue::invokeLater);
+
     // Set the menu bar properties
     // Added in Phase 5
 
@@ -130,10 +148,9 @@ public class ServerGUI extends Frame implements Observer
     addWindowListener(new MyWindowAdapter());
     setVisible(true);
 
-    // Set the text area properties
+    // Set the message log properties
     // Added in Phase 5
     add(serverText);
-    serverText.setEditable(false);
     serverText.setBounds(10,100,380,400);
 
     // This method will set the text field properties including a KeyListener
@@ -256,13 +273,6 @@ public class ServerGUI extends Frame implements Observer
    */
   public void update(Observable obj, Object arg)
   {
-    if (arg.equals("#enter"))
-    {
-      server.handleMessageFromServerUI(serverInput.getText());
-      serverInput.setText("");
-      return;
-    }
-    
     if (arg.equals("#started"))
     {
       connected();
@@ -374,7 +384,7 @@ public class ServerGUI extends Frame implements Observer
 
     if (arg.equals("#clear"))
     {
-      serverText.setText("");
+      serverText.clear();
       return;
     }
     
@@ -431,6 +441,7 @@ public class ServerGUI extends Frame implements Observer
     }
     
     ObservableOriginatorServer ooserver = new ObservableOriginatorServer(port);
+    ooserver.setBacklog(DEFAULT_BACKLOG);
     ServerGUI sv = new ServerGUI(ooserver);
   }
 }
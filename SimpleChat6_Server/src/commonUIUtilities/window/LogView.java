@@ -0,0 +1,298 @@
+package commonUIUtilities.window;
+
+import java.awt.*;
+import java.awt.event.*;
+
+/**
+ * Class LogView -- This class displays a log of messages, like a text
+ * area that cannot be edited, but only keeps the last lines given to
+ * it. The lines are held in an array used as a ring buffer, so once it
+ * is full each new line replaces the oldest one and the memory used
+ * stays the same however long the server runs.
+ *
+ * Only the lines in view are drawn. Appending a line does not redraw
+ * anything: the view is brought up to date once per frame, however
+ * many lines arrived during it. While the view is scrolled to the
+ * bottom it follows the new lines; otherwise it stays where it is.
+ *
+ * A line too long for the view is broken into rows when it is added,
+ * at the last space that fits or, for a word too long for a row, at
+ * the edge. Lines added before the view is laid out are not broken,
+ * and rows keep their width if the view is resized later. Unlike a
+ * text area, the log cannot be selected or copied.
+ */
+public class LogView extends Panel
+{
+  //Class variables *************************************************
+
+  /**
+   * The number of lines kept when none is given.
+   */
+  public static final int DEFAULT_CAPACITY = 5000;
+
+  /**
+   * The time between two updates of the view, in milliseconds.
+   */
+  static final int FRAME_TIME = 40;
+
+  /**
+   * The space left between the text and the sides of the canvas, in
+   * pixels.
+   */
+  static final int MARGIN = 4;
+
+  //Instance variables **********************************************
+
+  /**
+   * The lines kept, oldest first starting at index first. The lines
+   * and the indexes below are guarded by it.
+   */
+  private final String[] lines;
+
+  /**
+   * The index of the oldest line and the number of lines kept.
+   */
+  private int first = 0;
+  private int count = 0;
+
+  /**
+   * The number of lines dropped from the top since the view was last
+   * updated. The scroll position is moved up by as much, so a view
+   * that is not following the new lines keeps showing the same ones.
+   */
+  private int dropped = 0;
+
+  /**
+   * The component the lines are drawn on, and its scroll bar.
+   */
+  private final Canvas text = new Canvas()
+  {
+    public void update(Graphics g)
+    {
+      // The whole canvas is drawn by paint, so it is not cleared first
+      paint(g);
+    }
+
+    public void paint(Graphics g)
+    {
+      paintLines(g);
+    }
+  };
+  private final Scrollbar scrollbar = new Scrollbar(Scrollbar.VERTICAL);
+
+  /**
+   * Brings the view up to date once a frame has passed.
+   */
+  private final javax.swing.Timer frameTimer =
+    new javax.swing.Timer(FRAME_TIME, e -> refresh());
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs a log view that keeps the default number of lines.
+   */
+  public LogView()
+  {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Constructs a log view.
+   *
+   * @param capacity   int: The number of lines kept
+   */
+  public LogView(int capacity)
+  {
+    lines = new String[capacity];
+
+    setLayout(new BorderLayout());
+    add(text, BorderLayout.CENTER);
+    add(scrollbar, BorderLayout.EAST);
+    text.setBackground(Color.white);
+    text.setFont(new Font("Monospaced", Font.PLAIN, 12));
+
+    // An empty log is scrolled to the bottom, so it follows new lines
+    scrollbar.setValues(0, 1, 0, 1);
+    scrollbar.addAdjustmentListener(e -> text.repaint());
+    text.addMouseWheelListener(e ->
+    {
+      scrollbar.setValue(scrollbar.getValue()
+        + e.getUnitsToScroll() * scrollbar.getUnitIncrement());
+      text.repaint();
+    });
+    text.addComponentListener(new ComponentAdapter()
+    {
+      public void componentResized(ComponentEvent e)
+      {
+        refresh();
+      }
+    });
+
+    frameTimer.setRepeats(false);
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Adds text to the end of the log. Each line of the text becomes a
+   * line of the log. The view is updated at the end of the frame.
+   *
+   * @param str   String: The text to add
+   */
+  public void append(String str)
+  {
+    int columns = getColumns();
+
+    synchronized (lines)
+    {
+      int start = 0;
+      int end;
+
+      while ((end = str.indexOf('\n', start)) != -1)
+      {
+        addWrapped(str.substring(start, end), columns);
+        start = end + 1;
+      }
+      if (start < str.length())
+        addWrapped(str.substring(start), columns);
+    }
+
+    if (!frameTimer.isRunning())
+      frameTimer.start();
+  }
+
+  /**
+   * Removes every line from the log.
+   */
+  public void clear()
+  {
+    synchronized (lines)
+    {
+      java.util.Arrays.fill(lines, null);
+      first = 0;
+      count = 0;
+      dropped = 0;
+    }
+    refresh();
+  }
+
+  /**
+   * Adds one line, broken into as many rows as it takes to fit in the
+   * given number of columns.
+   *
+   * @param line   String: The line, without its end of line
+   * @param columns   int: The width of a row, or 0 not to break lines
+   */
+  private void addWrapped(String line, int columns)
+  {
+    while (columns > 0 && line.length() > columns)
+    {
+      int space = line.lastIndexOf(' ', columns);
+
+      if (space > 0)
+      {
+        addLine(line.substring(0, space));
+        line = line.substring(space + 1);
+      }
+      else
+      {
+        addLine(line.substring(0, columns));
+        line = line.substring(columns);
+      }
+    }
+    addLine(line);
+  }
+
+  /**
+   * Adds one line, replacing the oldest line if the buffer is full.
+   *
+   * @param line   String: The line, without its end of line
+   */
+  private void addLine(String line)
+  {
+    if (count < lines.length)
+    {
+      lines[(first + count) % lines.length] = line;
+      count++;
+    }
+    else
+    {
+      lines[first] = line;
+      first = (first + 1) % lines.length;
+      dropped++;
+    }
+  }
+
+  /**
+   * Returns the number of characters a row of the canvas has room for,
+   * or 0 if the canvas has not been laid out yet. The font is
+   * monospaced, so every character is as wide as any other.
+   */
+  private int getColumns()
+  {
+    FontMetrics metrics = text.getFontMetrics(text.getFont());
+    int width = text.getWidth() - 2 * MARGIN;
+
+    return (width <= 0) ? 0 : Math.max(1, width / metrics.charWidth('m'));
+  }
+
+  /**
+   * Returns the number of lines the canvas has room for.
+   */
+  private int getVisibleLines()
+  {
+    FontMetrics metrics = text.getFontMetrics(text.getFont());
+    return Math.max(1, text.getHeight() / metrics.getHeight());
+  }
+
+  /**
+   * Updates the scroll bar to the lines kept and redraws the canvas.
+   */
+  private void refresh()
+  {
+    int visible = getVisibleLines();
+    int maximum;
+    int value;
+    boolean following = scrollbar.getValue() + scrollbar.getVisibleAmount()
+      >= scrollbar.getMaximum();
+
+    synchronized (lines)
+    {
+      maximum = Math.max(count, visible);
+      value = following ? maximum - visible
+        : Math.max(0, scrollbar.getValue() - dropped);
+      dropped = 0;
+    }
+    scrollbar.setValues(value, visible, 0, maximum);
+    scrollbar.setBlockIncrement(Math.max(1, visible - 1));
+    text.repaint();
+  }
+
+  /**
+   * Draws the lines that are in view.
+   *
+   * @param g   Graphics: The graphics of the canvas
+   */
+  private void paintLines(Graphics g)
+  {
+    FontMetrics metrics = g.getFontMetrics(text.getFont());
+    int lineHeight = metrics.getHeight();
+    int top = scrollbar.getValue();
+
+    g.setColor(text.getBackground());
+    g.fillRect(0, 0, text.getWidth(), text.getHeight());
+    g.setColor(Color.black);
+    g.setFont(text.getFont());
+
+    synchronized (lines)
+    {
+      int rows = Math.min(getVisibleLines() + 1, count - top);
+
+      for (int i = 0; i < rows; i++)
+      {
+        g.drawString(lines[(first + top + i) % lines.length], MARGIN,
+          i * lineHeight + metrics.getAscent());
+      }
+    }
+  }
+} // End of LogView class
@@ -1 +1 @@
-package commonUIUtilities.window;import java.awt.*;/*** Class StringList -- This class contains utilities that are relevant to* a list box*/public class StringList extends List {  //Instance methods ************************************************    /**   * Verifies the list box to see if the string is one of its items.   *   * @param String   The client's login   */  public boolean inList (String str)   {    // Loop through list box items    for(int i = 0; i<getItemCount(); i++)      if (getItem(i).equals(str))        return true;    return false;  }  /**   * Removes a string from the list box.   *   * @param String   The client's login   */  public void removeFromList (String str)   {    // Loop through list box items    for(int i = 0; i<getItemCount(); i++)      if (getItem(i).equals(str))        remove(i);  }  /**   * Adds a string to the list box in alphabetical order.   *   * @param String   The string to add   */  public void addToList (String str)   {    if (str.substring(0, 5).toLowerCase().equals("server"))    {      add(str, 0);      return;    }          // Loop through list box items    for(int i = 1; i < getItemCount(); i++)     {      // If the list box item is bigger than the string      if (getItem(i).compareTo(str) > 0)       {        if (i == getItemCount()) // If the counter refers to the last item          add(str, getItemCount() + 1); // Insert at the bottom        else         // If the counter does not refer the first or the last,          add(str, i); // Insert right above the refered item	return;      }    }    // If the string was not added anywhere. Occurs when there are no items    // in the list    add(str, getItemCount()); // Add it to bottom of list  }}
\ No newline at end of file
+package commonUIUtilities.window;import java.awt.*;import java.util.Comparator;import java.util.TreeSet;/*** Class StringList -- This class contains utilities that are relevant to* a list box** The strings are kept in a sorted index as well as in the list box, so* finding, adding and removing a string does not scan the list box.* Changes to the list box itself are put off for a short while and made* together, by refilling it from the index, so that many clients* logging on at once cost one refill rather than one insertion each.*/public class StringList extends List {  //Class variables *************************************************  /**   * The time the list box gathers changes for before it is refilled,   * in milliseconds.   */  static final int REBUILD_DELAY = 40;  /**   * Orders the strings alphabetically, except that those of the server   * always come first.   */  static final Comparator<String> ORDER = (a, b) ->  {    boolean serverA = isServer(a);    boolean serverB = isServer(b);    if (serverA != serverB)      return serverA ? -1 : 1;    return a.compareTo(b);  };  //Instance variables **********************************************  /**   * The strings of the list box, in the order they are shown.   */  private final TreeSet<String> items = new TreeSet<String>(ORDER);  /**   * Refills the list box a short while after the first of a series of   * changes, so that a steady stream of changes still shows.   */  private final javax.swing.Timer rebuildTimer =    new javax.swing.Timer(REBUILD_DELAY, e -> rebuild());  //Constructors ****************************************************  /**   * Constructs an empty list box.   */  public StringList()  {    rebuildTimer.setRepeats(false);  }  //Instance methods ************************************************    /**   * Verifies the list box to see if the string is one of its items.   *   * @param String   The client's login   */  public boolean inList (String str)   {    return items.contains(str);  }  /**   * Removes a string from the list box.   *   * @param String   The client's login   */  public void removeFromList (String str)   {    if (items.remove(str) && !rebuildTimer.isRunning())      rebuildTimer.start();  }  /**   * Adds a string to the list box in alphabetical order.  The   * server's strings are kept at the top.   *   * @param String   The string to add   */  public void addToList (String str)   {    if (items.add(str) && !rebuildTimer.isRunning())      rebuildTimer.start();  }  /**   * Removes every string from the list box at once.   */  public void removeAll()  {    rebuildTimer.stop();    items.clear();    super.removeAll();  }  /**   * Refills the list box from the index.  The selected string stays   * selected if it is still there.   */  private void rebuild()  {    String selected = getSelectedItem();    super.removeAll();    for (String item : items)      add(item);    if (selected != null && items.contains(selected))      select(items.headSet(selected).size());  }  /**   * Verifies if a string is one of the server's, such as   * "SERVER - main".   *   * @param String   The string   */  private static boolean isServer(String str)  {    return str.startsWith("SERVER - ");  }}
\ No newline at end of file
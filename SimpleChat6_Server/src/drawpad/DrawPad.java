@@ -17,6 +17,7 @@ package drawpad;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.*;
 import java.util.*;
 
 public class DrawPad extends Frame 
@@ -34,6 +35,17 @@ public class DrawPad extends Frame
    * clicks (in pixels).
    */
   public static final int DOUBLE_CLICK_MOVE = 10;
+
+  /**
+   * The time the segments drawn are collected for before they are sent
+   * together in a single #strokes command (in miliseconds).
+   */
+  public static final int STROKE_BATCH_TIME = 40;
+
+  /**
+   * The largest number of segments sent in a single #strokes command.
+   */
+  public static final int STROKE_BATCH_SIZE = 128;
   
   // INSTANCE VARIABLES *****************************************************
 
@@ -71,9 +83,50 @@ public class DrawPad extends Frame
   Point firstPt = new Point(-20, -20);
 
   /**
-  * List of all the coordinates
+  * The coordinates of all the segments drawn, four per segment. The array
+  * grows as needed.
   */
-  Vector points = new Vector();
+  int[] segments = new int[1024];
+
+  /**
+  * The number of coordinates in segments
+  */
+  int segmentsLength = 0;
+
+  /**
+  * The image the segments are drawn into. Each segment is drawn into it once,
+  * so painting the pad only copies the image to the screen.
+  */
+  BufferedImage canvas;
+
+  /**
+  * The number of coordinates in segments already drawn into the canvas
+  */
+  int paintedLength = 0;
+
+  /**
+  * Guards the segments and the canvas, which are changed by the thread
+  * receiving the segments and read by the thread painting the pad
+  */
+  final Object segmentLock = new Object();
+
+  /**
+  * The coordinates of the segments drawn but not sent yet, four per segment
+  */
+  int[] pendingStrokes =
+    new int[STROKE_BATCH_SIZE * StrokeCodec.COORDS_PER_SEGMENT];
+
+  /**
+  * The number of coordinates in pendingStrokes
+  */
+  int pendingLength = 0;
+
+  /**
+  * Sends the pending segments once STROKE_BATCH_TIME has elapsed. It runs on
+  * the event dispatch thread, like the mouse listeners, so the pending
+  * segments need no locking.
+  */
+  javax.swing.Timer strokeTimer;
 
   /**
   * The menu items
@@ -102,6 +155,11 @@ public class DrawPad extends Frame
     menuFileClear.addActionListener(new PadClearAdapter(this));
     menuFileClose.addActionListener(new PadCloseAdapter(this));
 
+    // This timer will send the segments collected while drawing
+    strokeTimer = new javax.swing.Timer(STROKE_BATCH_TIME,
+      new PadStrokeAdapter(this));
+    strokeTimer.setRepeats(false);
+
     // Create the menu
     menuFile.add(menuFileClear);
     menuFile.add(menuFileClose);
@@ -129,17 +187,13 @@ public class DrawPad extends Frame
        && (Math.abs(e.getX() - firstPt.x) < DOUBLE_CLICK_MOVE)
        && (Math.abs(e.getY() - firstPt.y) < DOUBLE_CLICK_MOVE))
     {
-      openDrawPad.notifyAllObservers("#send #linedraw"
-        + lastPt.x + "," + lastPt.y + "," + firstPt.x + ","
-        + firstPt.y);
+      sendSegment(lastPt.x, lastPt.y, firstPt.x, firstPt.y);
       
       lastPt = new Point(firstPt.x, firstPt.y);
     }
     else
     {
-      openDrawPad.notifyAllObservers("#send #linedraw" 
-        + e.getX() + "," + e.getY() + "," + e.getX() + ","
-        + e.getY());
+      sendSegment(e.getX(), e.getY(), e.getX(), e.getY());
       
       lastPt = new Point(firstPt.x, firstPt.y);
       firstPt = new Point(e.getX(), e.getY());
@@ -161,17 +215,13 @@ public class DrawPad extends Frame
     // after the cursor has been dragged, not on its first click
     if (dragged)
     {
-      openDrawPad.notifyAllObservers("#send #linedraw" 
-        + lastPt.x + "," + lastPt.y + "," + e.getX() + "," 
-        + e.getY());
+      sendSegment(lastPt.x, lastPt.y, e.getX(), e.getY());
         
       lastPt = new Point(e.getX(), e.getY());
     }
     else
     {
-      openDrawPad.notifyAllObservers("#send #linedraw" 
-        + e.getX() + "," + e.getY() + "," + e.getX() + ","
-       + e.getY());
+      sendSegment(e.getX(), e.getY(), e.getX(), e.getY());
         
       lastPt = new Point(e.getX(), e.getY());
     }
@@ -180,6 +230,47 @@ public class DrawPad extends Frame
   public void handleRelease(MouseEvent e)
   {
     firstPt = new Point(e.getX(), e.getY());
+
+    // The stroke is over, so there is no point in waiting for more segments
+    flushStrokes();
+  }
+
+  /**
+   * Adds a segment to those waiting to be sent. The segments are sent
+   * together once STROKE_BATCH_TIME has elapsed since the first of them, or
+   * as soon as STROKE_BATCH_SIZE of them are waiting.
+   *
+   * @param x1   int: The x coordinate of the start of the segment
+   * @param y1   int: The y coordinate of the start of the segment
+   * @param x2   int: The x coordinate of the end of the segment
+   * @param y2   int: The y coordinate of the end of the segment
+   */
+  void sendSegment(int x1, int y1, int x2, int y2)
+  {
+    pendingStrokes[pendingLength++] = x1;
+    pendingStrokes[pendingLength++] = y1;
+    pendingStrokes[pendingLength++] = x2;
+    pendingStrokes[pendingLength++] = y2;
+
+    if (pendingLength == pendingStrokes.length)
+      flushStrokes();
+    else if (!strokeTimer.isRunning())
+      strokeTimer.start();
+  }
+
+  /**
+   * Sends the waiting segments in a single #strokes command.
+   */
+  public void flushStrokes()
+  {
+    strokeTimer.stop();
+
+    if (pendingLength == 0)
+      return;
+
+    openDrawPad.notifyAllObservers("#send "
+      + StrokeCodec.encode(pendingStrokes, pendingLength));
+    pendingLength = 0;
   }
       
   /**
@@ -193,6 +284,66 @@ public class DrawPad extends Frame
     repaint();
   }
 
+  /**
+   * Called when the user clears the pad. The pads of the other users are
+   * cleared as well.
+   */
+  public void sendClear()
+  {
+    // Segments drawn before the clear must not arrive after it
+    flushStrokes();
+    openDrawPad.notifyAllObservers("#send #clear");
+    setClearPad(true);
+  }
+
+  /**
+   * Erases all the segments at once. The pad is blank the next time it is
+   * painted.
+   */
+  public void clearSegments()
+  {
+    synchronized (segmentLock)
+    {
+      segmentsLength = 0;
+      paintedLength = 0;
+      canvas = null;
+    }
+  }
+
+
+  /**
+   * Adds a segment to the pad. It is drawn the next time the pad is painted.
+   *
+   * @param x1   int: The x coordinate of the start of the segment
+   * @param y1   int: The y coordinate of the start of the segment
+   * @param x2   int: The x coordinate of the end of the segment
+   * @param y2   int: The y coordinate of the end of the segment
+   */
+  public void addSegment(int x1, int y1, int x2, int y2)
+  {
+    addSegments(new int[] {x1, y1, x2, y2}, 4);
+  }
+
+  /**
+   * Adds many segments to the pad. They are drawn the next time the pad is
+   * painted.
+   *
+   * @param coords   int[]: The coordinates of the segments, four per segment
+   * @param count   int: The number of coordinates to add
+   */
+  public void addSegments(int[] coords, int count)
+  {
+    synchronized (segmentLock)
+    {
+      if (segmentsLength + count > segments.length)
+      {
+        segments = Arrays.copyOf(segments,
+          Math.max(segments.length * 2, segmentsLength + count));
+      }
+      System.arraycopy(coords, 0, segments, segmentsLength, count);
+      segmentsLength += count;
+    }
+  }
 
   /**
    * This class overrids the update method in the Frame
@@ -206,19 +357,8 @@ public class DrawPad extends Frame
   {
     if (clearPad) 
     {
-      // Erase all the coordinates
-      points.removeAllElements(); // Clear the points vector
-      g.setColor(Color.white); // Set the color to white
-
-      // Get screen size and paint a white rectangle that size to
-      // erase the drawpad. Used to prevent errors in some operating
-      // systems when attempting to draw something larger than the
-      // actual screen size
-      Toolkit theKit = getToolkit();
-      Dimension screenSize = theKit.getScreenSize();
-      g.fillRect(-1,-1,screenSize.width, screenSize.height);
-
-      g.setColor(Color.black); // Change the color back to black
+      // Erase all the coordinates and the image they were drawn into
+      clearSegments();
       clearPad = false;
     }
     paint(g);
@@ -227,7 +367,8 @@ public class DrawPad extends Frame
 
   /**
    * This class overrids the paint method in the Frame
-   * class. Used to draw to the Frame
+   * class. Used to draw to the Frame. The segments added since the last
+   * time are drawn into the canvas, which is then copied to the screen.
    *
    * @param g   Graphics: The graphics instance
    */
@@ -235,24 +376,47 @@ public class DrawPad extends Frame
   {
     try 
     {
-      // Flag indicating if the point is part of a line
-      Boolean isLine = null;
+      synchronized (segmentLock)
+      {
+        int width = Math.max(getWidth(), 1);
+        int height = Math.max(getHeight(), 1);
 
-      // Flag indicating if this is the first point being painted
-      boolean firstPT = true;
+        // If the pad has grown, all the segments are drawn again into a
+        // canvas of the new size
+        if (canvas == null || canvas.getWidth() < width
+           || canvas.getHeight() < height)
+        {
+          if (canvas != null)
+          {
+            width = Math.max(width, canvas.getWidth());
+            height = Math.max(height, canvas.getHeight());
+          }
+          canvas = new BufferedImage(width, height,
+            BufferedImage.TYPE_INT_RGB);
+          paintedLength = 0;
 
-      // Create Iterators of the x and y coordinates
-      Iterator IteratorPts = points.iterator();
+          Graphics2D blank = canvas.createGraphics();
+          blank.setColor(Color.white);
+          blank.fillRect(0, 0, width, height);
+          blank.dispose();
+        }
 
-      // Draws the objects
-      while (IteratorPts.hasNext()) 
-      {
-        // Gets a set of coordinates
-        Point coords = (Point)IteratorPts.next();
-        Point coords2 = (Point)IteratorPts.next();
+        // Draws the segments that are not in the canvas yet
+        if (paintedLength < segmentsLength)
+        {
+          Graphics2D pen = canvas.createGraphics();
+          pen.setColor(Color.black);
+
+          for (int i = paintedLength; i + 3 < segmentsLength; i += 4)
+          {
+            pen.drawLine(segments[i], segments[i + 1],
+              segments[i + 2], segments[i + 3]);
+          }
+          pen.dispose();
+          paintedLength = segmentsLength;
+        }
 
-        // If the coordinates are part of a line
-        g.drawLine(coords.x, coords.y, coords2.x, coords2.y);
+        g.drawImage(canvas, 0, 0, null);
       }
     } 
     catch (Throwable t) {}
@@ -5,7 +5,6 @@
 package drawpad;
 
 import java.util.*;
-import java.awt.*;
 
 /**
  * Class OpenDrawPad -- An instance of this class can be created by any class
@@ -83,14 +82,58 @@ public class OpenDrawPad extends Observable implements Observer
       comma2 = msg.indexOf(",", comma1 + 1);
       comma3 = msg.indexOf(",", comma2 + 1);
       
-      drawPad.points.addElement(new Point(
+      drawPad.addSegment(
         Integer.parseInt(msg.substring(9, comma1)),
-        Integer.parseInt(msg.substring(comma1 + 1, comma2))));
-      
-      drawPad.points.addElement(new Point(
+        Integer.parseInt(msg.substring(comma1 + 1, comma2)),
         Integer.parseInt(msg.substring(comma2 + 1, comma3)),
-        Integer.parseInt(msg.substring(comma3 + 1))));
+        Integer.parseInt(msg.substring(comma3 + 1)));
+
+      drawPad.repaint();
+    }
+
+    //The #strokes command holds many segments at once. They are all
+    //added before the pad is repainted.
+    if (msg.startsWith(StrokeCodec.COMMAND + " "))
+    {
+      int[] coords;
+
+      try
+      {
+        coords = StrokeCodec.decode(msg);
+      }
+      catch (IllegalArgumentException e)
+      {
+        return;
+      }
+
+      drawPad.addSegments(coords, coords.length);
+      drawPad.repaint();
+    }
+
+    //The #snapshot command holds the whole content of the pad. It replaces
+    //whatever the pad held.
+    if (msg.startsWith(StrokeCodec.SNAPSHOT + " "))
+    {
+      int[] coords;
+
+      try
+      {
+        coords = StrokeCodec.decodeSnapshot(msg);
+      }
+      catch (IllegalArgumentException e)
+      {
+        return;
+      }
+
+      drawPad.clearSegments();
+      drawPad.addSegments(coords, coords.length);
+      drawPad.repaint();
+    }
 
+    //The #clear command erases the pad.
+    if (msg.equals("#clear"))
+    {
+      drawPad.clearSegments();
       drawPad.repaint();
     }
   }
@@ -15,7 +15,6 @@ public class PadClearAdapter implements java.awt.event.ActionListener
 
   public void actionPerformed(java.awt.event.ActionEvent e) 
   {
-    adaptee.setClearPad(true);
-    adaptee.repaint();
+    adaptee.sendClear();
   }
 }
@@ -0,0 +1,230 @@
+// This file contains material supporting the textbook:
+// "Object Oriented Software Engineering" and is issued under the open-source
+// license found at www.lloseng.com
+
+package drawpad;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Class StrokeCodec -- Packs a series of line segments into a single
+ * #strokes command and unpacks it again. A command has the format
+ * "#strokes &lt;data&gt;", where the data is the Base64 encoding of the
+ * coordinates of the segments as 16 bit values. Each segment is two points
+ * and every point is given as the difference from the point before it, the
+ * first one from (0, 0), so the segments of a drag mostly encode small
+ * values. Coordinates must fit in a short; those that do not are clamped
+ * to the nearest value that does.
+ *
+ * The server relays the command as it is. It keeps the segments drawn on
+ * each channel, and sends them to a client who logs in as a single
+ * "#snapshot &lt;data&gt;" command, whose data is packed the same way and
+ * then compressed.
+ */
+public class StrokeCodec
+{
+  //Class variables *************************************************
+
+  /**
+   * The verb of the command.
+   */
+  public static final String COMMAND = "#strokes";
+
+  /**
+   * The verb of the command holding the whole content of a pad.
+   */
+  public static final String SNAPSHOT = "#snapshot";
+
+  /**
+   * The number of coordinates of a segment: x1, y1, x2 and y2.
+   */
+  public static final int COORDS_PER_SEGMENT = 4;
+
+  //Class methods ***************************************************
+
+  /**
+   * Packs segments into a #strokes command.
+   *
+   * @param coords   int[]: The coordinates of the segments, four per segment
+   * @param count   int: The number of coordinates to pack
+   * @return The command.
+   */
+  public static String encode(int[] coords, int count)
+  {
+    return COMMAND + " " + Base64.getEncoder().encodeToString
+      (pack(coords, count));
+  }
+
+  /**
+   * Unpacks the segments of a #strokes command. Any incomplete segment at the
+   * end of the data is ignored.
+   *
+   * @param command   String: The command
+   * @return The coordinates of the segments, four per segment.
+   * @exception IllegalArgumentException If the command is malformed.
+   */
+  public static int[] decode(String command)
+  {
+    return unpack(Base64.getDecoder().decode(argument(command, COMMAND)));
+  }
+
+  /**
+   * Packs the whole content of a pad into a compressed #snapshot command.
+   *
+   * @param coords   int[]: The coordinates of the segments, four per segment
+   * @param count   int: The number of coordinates to pack
+   * @return The command.
+   */
+  public static String encodeSnapshot(int[] coords, int count)
+  {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    // The higher levels save little on the small differences of a drag
+    // but take many times longer on a large pad
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    try
+    {
+      DeflaterOutputStream out =
+        new DeflaterOutputStream(compressed, deflater);
+      out.write(pack(coords, count));
+      out.close();
+    }
+    catch (IOException e)
+    {
+      // Cannot happen when writing to memory
+      throw new IllegalStateException(e);
+    }
+    finally
+    {
+      deflater.end();
+    }
+    return SNAPSHOT + " " + Base64.getEncoder().encodeToString
+      (compressed.toByteArray());
+  }
+
+  /**
+   * Unpacks the segments of a #snapshot command.
+   *
+   * @param command   String: The command
+   * @return The coordinates of the segments, four per segment.
+   * @exception IllegalArgumentException If the command is malformed.
+   */
+  public static int[] decodeSnapshot(String command)
+  {
+    byte[] compressed =
+      Base64.getDecoder().decode(argument(command, SNAPSHOT));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    try
+    {
+      InputStream in =
+        new InflaterInputStream(new ByteArrayInputStream(compressed));
+      byte[] buffer = new byte[8192];
+      int read;
+
+      while ((read = in.read(buffer)) != -1)
+        bytes.write(buffer, 0, read);
+      in.close();
+    }
+    catch (IOException e)
+    {
+      throw new IllegalArgumentException("Malformed " + SNAPSHOT, e);
+    }
+    return unpack(bytes.toByteArray());
+  }
+
+  /**
+   * Limits a coordinate to the values a command can hold.
+   *
+   * @param coord   int: The coordinate
+   * @return The coordinate, or the nearest value that fits in a short.
+   */
+  public static int clamp(int coord)
+  {
+    return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, coord));
+  }
+
+  /**
+   * Writes each point as the difference from the point before it. The
+   * difference may not fit in 16 bits, but its low 16 bits are enough for
+   * unpack to get the point back, since the point itself fits in a short.
+   *
+   * @param coords   int[]: The coordinates of the points, two per point
+   * @param count   int: The number of coordinates to pack
+   */
+  private static byte[] pack(int[] coords, int count)
+  {
+    byte[] bytes = new byte[count * 2];
+    int lastX = 0;
+    int lastY = 0;
+
+    for (int i = 0; i + 1 < count; i += 2)
+    {
+      int x = clamp(coords[i]);
+      int y = clamp(coords[i + 1]);
+
+      putShort(bytes, i * 2, x - lastX);
+      putShort(bytes, i * 2 + 2, y - lastY);
+      lastX = x;
+      lastY = y;
+    }
+    return bytes;
+  }
+
+  /**
+   * Reads the points written by pack, dropping any incomplete segment at the
+   * end.
+   *
+   * @param bytes   byte[]: The packed points
+   */
+  private static int[] unpack(byte[] bytes)
+  {
+    int count = bytes.length / 2;
+    int[] coords = new int[count - count % COORDS_PER_SEGMENT];
+    short x = 0;
+    short y = 0;
+
+    for (int i = 0; i < coords.length; i += 2)
+    {
+      x = (short)(x + getShort(bytes, i * 2));
+      y = (short)(y + getShort(bytes, i * 2 + 2));
+      coords[i] = x;
+      coords[i + 1] = y;
+    }
+    return coords;
+  }
+
+  /**
+   * Returns what follows the verb of a command and a space.
+   *
+   * @param command   String: The command
+   * @param verb   String: The verb the command must start with
+   * @exception IllegalArgumentException If the command has another verb.
+   */
+  private static String argument(String command, String verb)
+  {
+    if (!command.startsWith(verb + " "))
+      throw new IllegalArgumentException("Not a " + verb + " command");
+
+    return command.substring(verb.length() + 1);
+  }
+
+  /**
+   * Writes the low 16 bits of a value, high byte first.
+   */
+  private static void putShort(byte[] bytes, int index, int value)
+  {
+    bytes[index] = (byte)(value >> 8);
+    bytes[index + 1] = (byte)value;
+  }
+
+  /**
+   * Reads a 16 bit value written by putShort.
+   */
+  private static short getShort(byte[] bytes, int index)
+  {
+    return (short)((bytes[index] << 8) | (bytes[index + 1] & 0xff));
+  }
+} // End of StrokeCodec class
@@ -0,0 +1,185 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class records who is blocking messages from whom.  Every block
+ * is kept in both directions, from the blocker to the users it blocks
+ * and from a user to those blocking it, so that either question is
+ * answered by a single lookup.  The server's own blocks are recorded
+ * under the name "server".
+ *
+ * Blocks are only added and removed while the graph is locked, so the
+ * two directions always agree once a change is complete.  The edges of
+ * a user are kept in a LoginSet, which is replaced rather than
+ * modified, so lookups need no locking and never see a set that is
+ * being changed.
+ */
+public class BlockGraph
+{
+  //Instance variables **********************************************
+
+  /**
+   * The users every blocker is blocking, indexed by blocker.
+   */
+  private final ConcurrentMap<String, LoginSet> blockedBy =
+    new ConcurrentHashMap<String, LoginSet>();
+
+  /**
+   * The blockers of every user, indexed by the blocked user.
+   */
+  private final ConcurrentMap<String, LoginSet> blockersOf =
+    new ConcurrentHashMap<String, LoginSet>();
+
+  //Instance methods ************************************************
+
+  /**
+   * Records that a blocker is blocking messages from a user.
+   *
+   * @param blocker The loginID of the blocker.
+   * @param user The loginID of the user being blocked.
+   * @return false if the block was already in effect.
+   */
+  public synchronized boolean block(String blocker, String user)
+  {
+    if (!add(blockedBy, blocker, user))
+      return false;
+
+    add(blockersOf, user, blocker);
+    return true;
+  }
+
+  /**
+   * Ends the block of a user by a blocker.
+   *
+   * @param blocker The loginID of the blocker.
+   * @param user The loginID of the blocked user.
+   * @return false if the block was not in effect.
+   */
+  public synchronized boolean unblock(String blocker, String user)
+  {
+    if (!remove(blockedBy, blocker, user))
+      return false;
+
+    remove(blockersOf, user, blocker);
+    return true;
+  }
+
+  /**
+   * Ends every block of a blocker.
+   *
+   * @param blocker The loginID of the blocker.
+   * @return The users that were blocked, in alphabetical order.
+   */
+  public synchronized List<String> unblockAll(String blocker)
+  {
+    LoginSet users = blockedBy.remove(blocker);
+
+    if (users == null)
+      return Collections.emptyList();
+
+    List<String> unblocked = new ArrayList<String>(users);
+    Collections.sort(unblocked);
+
+    for (String user : unblocked)
+      remove(blockersOf, user, blocker);
+    return unblocked;
+  }
+
+  /**
+   * Verifies if a blocker is blocking messages from a user.
+   *
+   * @param blocker The loginID of the blocker.
+   * @param user The loginID of the user.
+   */
+  public boolean isBlocking(String blocker, String user)
+  {
+    return getBlocked(blocker).contains(user);
+  }
+
+  /**
+   * Returns the users a blocker is blocking.  The set is not affected
+   * by later blocks and cannot be modified.
+   *
+   * @param blocker The loginID of the blocker.
+   */
+  public LoginSet getBlocked(String blocker)
+  {
+    return lookup(blockedBy, blocker);
+  }
+
+  /**
+   * Returns the blockers of a user.  The set is not affected by later
+   * blocks and cannot be modified.
+   *
+   * @param user The loginID of the user.
+   */
+  public LoginSet getBlockers(String user)
+  {
+    return lookup(blockersOf, user);
+  }
+
+  /**
+   * Adds an edge to one direction of the graph.
+   *
+   * @param edges The direction to add it to.
+   * @param from The user the edge starts from.
+   * @param to The user the edge leads to.
+   * @return false if the edge was already there.
+   */
+  private static boolean add
+    (ConcurrentMap<String, LoginSet> edges, String from, String to)
+  {
+    LoginSet targets = lookup(edges, from);
+    LoginSet updated = targets.with(to);
+
+    if (updated == targets)
+      return false;
+
+    edges.put(from, updated);
+    return true;
+  }
+
+  /**
+   * Removes an edge from one direction of the graph.  A user left
+   * without edges is dropped.
+   *
+   * @param edges The direction to remove it from.
+   * @param from The user the edge starts from.
+   * @param to The user the edge leads to.
+   * @return false if the edge was not there.
+   */
+  private static boolean remove
+    (ConcurrentMap<String, LoginSet> edges, String from, String to)
+  {
+    LoginSet targets = lookup(edges, from);
+    LoginSet updated = targets.without(to);
+
+    if (updated == targets)
+      return false;
+
+    if (updated.isEmpty())
+      edges.remove(from);
+    else
+      edges.put(from, updated);
+    return true;
+  }
+
+  /**
+   * Finds the edges of a user in one direction of the graph.
+   *
+   * @param edges The direction to look in.
+   * @param from The user.
+   */
+  private static LoginSet lookup
+    (ConcurrentMap<String, LoginSet> edges, String from)
+  {
+    LoginSet targets = (from == null) ? null : edges.get(from);
+
+    if (targets == null)
+      return LoginSet.EMPTY;
+    return targets;
+  }
+}
+//End of BlockGraph class
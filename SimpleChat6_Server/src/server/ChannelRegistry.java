@@ -0,0 +1,108 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import ocsf.server.*;
+
+/**
+ * This class keeps track of the logged in clients on every channel so
+ * that a message sent to a channel only has to visit the members of
+ * that channel.  Channels are created when their first member joins
+ * and dropped when their last member leaves.
+ */
+public class ChannelRegistry
+{
+  //Instance variables **********************************************
+
+  /**
+   * The members of every channel, indexed by channel name.
+   */
+  private final ConcurrentMap<String, Set<ConnectionToClient>> channels =
+    new ConcurrentHashMap<String, Set<ConnectionToClient>>();
+
+  //Instance methods ************************************************
+
+  /**
+   * Adds a client to a channel.
+   *
+   * @param channel The channel to join.
+   * @param client The client joining it.
+   */
+  public void join(String channel, ConnectionToClient client)
+  {
+    channels.compute(channel, (name, members) ->
+    {
+      if (members == null)
+        members = ConcurrentHashMap.newKeySet();
+      members.add(client);
+      return members;
+    });
+  }
+
+  /**
+   * Removes a client from a channel.  Nothing is done if the client is
+   * not on it.
+   *
+   * @param channel The channel to leave.
+   * @param client The client leaving it.
+   */
+  public void leave(String channel, ConnectionToClient client)
+  {
+    if (channel == null)
+      return;
+
+    channels.computeIfPresent(channel, (name, members) ->
+    {
+      members.remove(client);
+      return members.isEmpty() ? null : members;
+    });
+  }
+
+  /**
+   * Moves a client from one channel to another.
+   *
+   * @param oldChannel The channel the client is leaving.
+   * @param newChannel The channel the client is joining.
+   * @param client The client changing channels.
+   */
+  public void move
+    (String oldChannel, String newChannel, ConnectionToClient client)
+  {
+    leave(oldChannel, client);
+    join(newChannel, client);
+  }
+
+  /**
+   * Returns the members of a channel.  The set may change while it is
+   * being iterated over, but iterating never fails.
+   *
+   * @param channel The channel.
+   */
+  public Set<ConnectionToClient> getMembers(String channel)
+  {
+    Set<ConnectionToClient> members =
+      (channel == null) ? null : channels.get(channel);
+
+    if (members == null)
+      return Collections.emptySet();
+    return members;
+  }
+
+  /**
+   * Returns the number of members of every channel, indexed by channel
+   * name in alphabetical order.  Takes no lock, so the counts may be
+   * a little behind clients joining or leaving meanwhile.
+   */
+  public SortedMap<String, Integer> getMemberCounts()
+  {
+    SortedMap<String, Integer> counts = new TreeMap<String, Integer>();
+
+    for (Map.Entry<String, Set<ConnectionToClient>> entry
+           : channels.entrySet())
+    {
+      counts.put(entry.getKey(), entry.getValue().size());
+    }
+    return counts;
+  }
+}
+//End of ChannelRegistry class
@@ -0,0 +1,173 @@
+package server;
+
+import ocsf.server.*;
+
+/**
+ * This class holds the state the server keeps for one connected
+ * client.  It is attached to the client's connection once, when the
+ * client connects, so that handling a message needs a single lookup in
+ * the connection's info map rather than one per item of state.
+ *
+ * The fields are volatile since they are read by the writer threads
+ * and the server's console as well as by the connection's own thread.
+ * The session's monitor is the client's send lock: it is held while a
+ * message is written to the client.
+ */
+public class ChatSession
+{
+  //Instance variables **********************************************
+
+  /**
+   * The connection the session belongs to.
+   */
+  private final ConnectionToClient client;
+
+  /**
+   * The client's loginID.  Empty until the client has sent one.
+   */
+  private volatile String loginID = "";
+
+  /**
+   * The channel the client is on.  Empty until it is logged in.
+   */
+  private volatile String channel = "";
+
+  /**
+   * The step of the login the client is at.
+   */
+  private volatile LoginState state = LoginState.AWAITING_LOGIN;
+
+  /**
+   * Indicates the client has disconnected.
+   */
+  private volatile boolean disconnected = false;
+
+  /**
+   * The number of messages written to the client since its output
+   * stream was last reset.  Guarded by the client's send lock.
+   */
+  private int sentSinceReset = 0;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs the session of a client who has just connected.
+   *
+   * @param client The connection to the client.
+   */
+  public ChatSession(ConnectionToClient client)
+  {
+    this.client = client;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Returns the connection the session belongs to.
+   */
+  public ConnectionToClient getClient()
+  {
+    return client;
+  }
+
+  /**
+   * Returns the client's loginID, or an empty string if it has not
+   * sent one.
+   */
+  public String getLoginID()
+  {
+    return loginID;
+  }
+
+  /**
+   * Sets the client's loginID.
+   *
+   * @param loginID The loginID.
+   */
+  public void setLoginID(String loginID)
+  {
+    this.loginID = loginID;
+  }
+
+  /**
+   * Returns the channel the client is on.
+   */
+  public String getChannel()
+  {
+    return channel;
+  }
+
+  /**
+   * Sets the channel the client is on.
+   *
+   * @param channel The channel.
+   */
+  public void setChannel(String channel)
+  {
+    this.channel = channel;
+  }
+
+  /**
+   * Returns the step of the login the client is at.
+   */
+  public LoginState getState()
+  {
+    return state;
+  }
+
+  /**
+   * Moves the client to another step of the login.
+   *
+   * @param state The new step.
+   */
+  public void setState(LoginState state)
+  {
+    this.state = state;
+  }
+
+  /**
+   * Verifies if the client has completed a login.
+   */
+  public boolean isLoggedIn()
+  {
+    return state == LoginState.LOGGED_IN;
+  }
+
+  /**
+   * Verifies if the client has disconnected.
+   */
+  public boolean isDisconnected()
+  {
+    return disconnected;
+  }
+
+  /**
+   * Records that the client has disconnected.
+   */
+  public void setDisconnected()
+  {
+    disconnected = true;
+  }
+
+  /**
+   * Counts a message written to the client.  Must be called with the
+   * client's send lock held.
+   *
+   * @return The number of messages written since the client's output
+   *         stream was last reset, including this one.
+   */
+  public int countSent()
+  {
+    return ++sentSinceReset;
+  }
+
+  /**
+   * Records that the client's output stream has been reset.  Must be
+   * called with the client's send lock held.
+   */
+  public void streamReset()
+  {
+    sentSinceReset = 0;
+  }
+}
+//End of ChatSession class
@@ -0,0 +1,21 @@
+package server;
+
+import ocsf.server.*;
+
+/**
+ * This interface is implemented by the objects that carry out one
+ * command of the chat server.  Handlers are registered with a
+ * CommandRegistry under the verb of their command.
+ */
+public interface CommandHandler
+{
+  /**
+   * This method carries out the command.
+   *
+   * @param command The whole command, as it was received.
+   * @param client The client who issued the command, or null if it was
+   *        typed on the server's console.
+   */
+  void handle(String command, ConnectionToClient client);
+}
+//End of CommandHandler interface
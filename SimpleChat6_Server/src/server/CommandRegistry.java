@@ -0,0 +1,148 @@
+package server;
+
+import java.util.*;
+import ocsf.server.*;
+
+/**
+ * This class maps the verb of a command, such as <code>#block</code>,
+ * to the handler that carries it out.  Commands from clients and
+ * commands typed on the server's console are kept in separate tables,
+ * since the same verb does not always do the same thing for both.
+ *
+ * The verb of a command is the '#' followed by the letters that come
+ * after it, so <code>#unblock bob</code> and <code>#linedraw1,2,3,4</code>
+ * have the verbs <code>#unblock</code> and <code>#linedraw</code>.  A
+ * command is looked up once, by its verb, instead of being compared
+ * against every known prefix.
+ *
+ * The handlers are meant to be registered before the server starts.
+ * The tables are not modified afterwards, so lookups need no locking.
+ *
+ * The time taken by every command sent by a client is recorded in the
+ * latency histogram of its verb.
+ */
+public class CommandRegistry
+{
+  //Instance variables **********************************************
+
+  /**
+   * The handlers of the commands sent by clients, indexed by verb.
+   */
+  private final Map<String, CommandHandler> clientCommands =
+    new HashMap<String, CommandHandler>();
+
+  /**
+   * The handlers of the commands typed on the server's console,
+   * indexed by verb.
+   */
+  private final Map<String, CommandHandler> serverCommands =
+    new HashMap<String, CommandHandler>();
+
+  /**
+   * The metrics the time taken by client commands is recorded in.
+   */
+  private final ServerMetrics metrics;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs an empty command registry.
+   *
+   * @param metrics The metrics client commands are timed in.
+   */
+  public CommandRegistry(ServerMetrics metrics)
+  {
+    this.metrics = metrics;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Registers the handler of a command sent by clients.
+   *
+   * @param verb The verb of the command, including the '#'.
+   * @param handler The handler that carries out the command.
+   */
+  public void addClientCommand(String verb, CommandHandler handler)
+  {
+    clientCommands.put(verb, handler);
+    metrics.addHistogram(verb);
+  }
+
+  /**
+   * Registers the handler of a command typed on the server's console.
+   *
+   * @param verb The verb of the command, including the '#'.
+   * @param handler The handler that carries out the command.
+   */
+  public void addServerCommand(String verb, CommandHandler handler)
+  {
+    serverCommands.put(verb, handler);
+  }
+
+  /**
+   * Carries out a command.  The handler is taken from the client table
+   * if a client is given and from the server table otherwise.
+   *
+   * @param command The whole command, as it was received.
+   * @param client The client who issued the command, or null if it was
+   *        typed on the server's console.
+   * @return false if the command has no handler.
+   */
+  public boolean dispatch(String command, ConnectionToClient client)
+  {
+    String verb = getVerb(command);
+
+    if (verb == null)
+      return false;
+
+    CommandHandler handler = (client == null)
+      ? serverCommands.get(verb) : clientCommands.get(verb);
+
+    if (handler == null)
+      return false;
+
+    if (client == null)
+    {
+      handler.handle(command, client);
+      return true;
+    }
+
+    long start = System.nanoTime();
+    try
+    {
+      handler.handle(command, client);
+    }
+    finally
+    {
+      metrics.recordLatency(verb, System.nanoTime() - start);
+    }
+    return true;
+  }
+
+  /**
+   * Extracts the verb of a command: the '#' and the letters that
+   * follow it.  A '#' followed by a '?' has the verb <code>#?</code>.
+   *
+   * @param command The command.
+   * @return The verb, or null if the line is not a command.
+   */
+  public static String getVerb(String command)
+  {
+    if (!command.startsWith("#"))
+      return null;
+
+    int end = 1;
+    while (end < command.length()
+       && Character.isLetter(command.charAt(end)))
+    {
+      end++;
+    }
+
+    if (end == 1 && command.startsWith("#?"))
+      end = 2;
+
+    return command.substring(0, end);
+  }
+}
+//End of CommandRegistry class
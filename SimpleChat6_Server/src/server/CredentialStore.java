@@ -0,0 +1,200 @@
+package server;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class keeps the accounts of the password file in memory so
+ * that a login does not have to read the file.  The file is read once,
+ * the first time an account is looked up, and every account added
+ * afterwards is recorded in the map as well as appended to the file.
+ *
+ * Each line of the password file has the format
+ * <code>&lt;loginID&gt; &lt;password&gt;</code> and ends with a line
+ * break.  A last line without a line break is ignored, as it always
+ * was by the server.
+ */
+public class CredentialStore
+{
+  //Class variables *************************************************
+
+  /**
+   * The ASCII value for characters. They are declared as final
+   * because their values will never be changed.  The registry writer
+   * uses them as well to write the lines of the file.
+   */
+  static final int LINEBREAK = 10;
+  static final int RETURN = 13;
+  static final int SPACE = 32;
+
+  //Instance variables **********************************************
+
+  /**
+   * The path of the password file.
+   */
+  private final String passwordFile;
+
+  /**
+   * The password of every account, indexed by loginID.
+   */
+  private final Map<String, String> passwords =
+    new ConcurrentHashMap<String, String>();
+
+  /**
+   * Indicates the password file has been read into the map.
+   */
+  private volatile boolean loaded = false;
+
+  /**
+   * Appends new accounts to the password file.
+   */
+  private final RegistryWriter registry;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs a store for the given password file.  The file is not
+   * read until an account is first looked up.
+   *
+   * @param passwordFile The path of the password file.
+   * @param writer Writes the new accounts to the file.
+   */
+  public CredentialStore(String passwordFile, Executor writer)
+  {
+    this.passwordFile = passwordFile;
+    registry = new RegistryWriter(passwordFile, writer);
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Verifies if an account exists for the loginID.
+   *
+   * @param loginID The client's loginID
+   * @exception IOException If the password file cannot be read.
+   */
+  public boolean isLoginUsed(String loginID) throws IOException
+  {
+    if (!loaded)
+      load();
+    return passwords.containsKey(loginID);
+  }
+
+  /**
+   * Verifies if the loginID and the password correspond to an
+   * account.
+   *
+   * @param loginID The client's loginID
+   * @param password The client's password
+   * @exception IOException If the password file cannot be read.
+   */
+  public boolean isValidPwd(String loginID, String password)
+    throws IOException
+  {
+    if (!loaded)
+      load();
+    return password.equals(passwords.get(loginID));
+  }
+
+  /**
+   * Appends an account to the password file and records it in the
+   * map.  The account is recorded right away, so that the loginID
+   * cannot be taken again while it is being written, and forgotten if
+   * it could not be.  The map is left alone if the file has not been
+   * read yet, since the account will then be found when it is.
+   *
+   * @param loginID The client's loginID
+   * @param password The client's password
+   * @return A future completed once the account is on disk, or
+   *         completed with the IOException that kept it from being
+   *         written.
+   */
+  public CompletableFuture<Void> addAccount(String loginID, String password)
+  {
+    synchronized (this)
+    {
+      if (loaded)
+        passwords.put(loginID, password);
+    }
+
+    return registry.append(loginID, password).whenComplete
+      ((done, failure) ->
+      {
+        if (failure != null)
+          passwords.remove(loginID, password);
+      });
+  }
+
+  /**
+   * Writes any pending accounts and closes the password file.
+   *
+   * @exception IOException If the accounts could not be written.
+   */
+  public void close() throws IOException
+  {
+    registry.close();
+  }
+
+  /**
+   * Reads the password file into the map if it has not been read yet.
+   * If the file cannot be read, it will be tried again on the next
+   * lookup.
+   *
+   * @exception IOException If the password file cannot be read.
+   */
+  private synchronized void load() throws IOException
+  {
+    if (loaded)
+      return;
+
+    InputStream inputFile =
+      new BufferedInputStream(new FileInputStream(passwordFile));
+    StringBuilder line = new StringBuilder();
+
+    try
+    {
+      int character;
+
+      while ((character = inputFile.read()) != -1)
+      {
+        if (character == LINEBREAK)
+        {
+          addLine(line);
+          line.setLength(0);
+        }
+        else if (character != RETURN)
+        {
+          line.append((char)character);
+        }
+      }
+    }
+    finally
+    {
+      inputFile.close();
+    }
+    loaded = true;
+  }
+
+  /**
+   * Adds the account on one line of the password file to the map.
+   * Lines without a space are not accounts and are skipped.
+   *
+   * @param line The line, without its line break.
+   */
+  private void addLine(StringBuilder line)
+  {
+    int space = line.indexOf(" ");
+
+    if (space == -1)
+      return;
+
+    String loginID = line.substring(0, space);
+
+    // The first occurrence of a loginID is the one that was checked
+    // when the file was scanned, so it must win.
+    if (!passwords.containsKey(loginID))
+      passwords.put(loginID, line.substring(space + 1));
+  }
+}
+//End of CredentialStore class
@@ -2,6 +2,8 @@ package server;
 
 import java.io.*;
 import java.util.*;  //Added in phase 3
+import java.util.concurrent.*;
+import java.util.function.*;
 import ocsf.server.*;
 
 /**
@@ -31,37 +33,182 @@ public class EchoServer extends Observable implements Observer
   static final String PASSWORDFILE = "C:\\msys64_2\\home\\Asus\\2022_Backend\\SimpleChat6_Server\\src\\passwords.txt";
 
   /**
-  * The ASCII value for characters. They are declared as final 
-  * because their values will never be changed.
-  * Added in Phase 3
-  */
-  static final int LINEBREAK = 10; // Added in Phase 3
-  static final int RETURN = 13; // Added in Phase 3
-  static final int SPACE = 32; // Added in Phase 3
+   * The default number of messages that may wait to be sent to a
+   * client.
+   */
+  final public static int DEFAULT_OUTBOUND_CAPACITY = 1024;
+
+  /**
+   * The number of threads writing the queued messages to the clients.
+   */
+  static final int WRITER_THREADS =
+    Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  /**
+   * The number of messages sent to a client between two resets of its
+   * output stream.
+   */
+  static final int STREAM_RESET_INTERVAL = 1024;
+
+  /**
+   * The default longest time, in milliseconds, a write to a client may
+   * take before the client is expelled.
+   */
+  final public static int DEFAULT_WRITE_TIMEOUT = 5000;
+
+  /**
+   * The time, in milliseconds, between two checks for writes that have
+   * taken too long.
+   */
+  static final int WATCHDOG_INTERVAL = 250;
 
-  
   //Instance variables **********************************************
   
   /**
    * The channel the server is currently listening on.  If set to 
    * null the server sees all channels.
    */
-  String serverChannel = null;
+  volatile String serverChannel = null;
   
   /**
-   * The clients from which normal messages are blocked by the server.
+   * The blocks in effect.  The clients from which normal messages are
+   * blocked by the server are recorded as blocked by "server".
    */
-  Vector blockedUsers = new Vector();
+  private BlockGraph blocks = new BlockGraph();
+
+  /**
+   * The forwarding between clients and the routes it gives messages.
+   */
+  private ForwardingGraph forwarding = new ForwardingGraph(blocks);
   
   /**
    * The server this class observes
    */
   private ObservableOriginatorServer server;
+
+  /**
+   * The clients that have completed a login, indexed by loginID.  It
+   * is kept up to date by the login and disconnect paths so that
+   * finding a client does not require a scan of every connection.
+   */
+  private Map<String, ConnectionToClient> clientsByLogin =
+    new ConcurrentHashMap<String, ConnectionToClient>();
+
+  /**
+   * The logged in clients on every channel.
+   */
+  private ChannelRegistry channels = new ChannelRegistry();
+
+  /**
+   * What has been drawn on the pad of every channel, indexed by channel
+   * name.  A channel's pad is dropped when its last member leaves, as
+   * the channel is.
+   */
+  private ConcurrentMap<String, Whiteboard> whiteboards =
+    new ConcurrentHashMap<String, Whiteboard>();
+
+  /**
+   * The messages waiting to be sent to each logged in client.
+   */
+  private Map<ConnectionToClient, OutboundQueue> outboundQueues =
+    new ConcurrentHashMap<ConnectionToClient, OutboundQueue>();
+
+  /**
+   * The thread group the writer threads are created in.  They are
+   * often started from a connection's thread, whose group the server
+   * counts as its list of clients, so they must not inherit it.
+   */
+  private final ThreadGroup writerGroup =
+    Thread.currentThread().getThreadGroup();
+
+  /**
+   * The threads that write the queued messages to the clients, one per
+   * processor.  A queue gives its thread back after each batch, so a
+   * busy client does not keep the others waiting.  A client that does
+   * not read its messages ties up a thread until its write fails, so
+   * the watchdog expels it once the write has taken longer than the
+   * write timeout.
+   */
+  private ExecutorService writers = Executors.newFixedThreadPool(
+    WRITER_THREADS, runnable ->
+    {
+      Thread writer =
+        new Thread(writerGroup, runnable, "outbound-writer");
+      writer.setDaemon(true);
+      return writer;
+    });
+
+  /**
+   * The thread that expels the clients whose writes take longer than
+   * the write timeout, and closes the connections of the clients
+   * expelled for not reading.  Closing a connection makes the write
+   * blocked on it fail, which gives its writer thread back.
+   */
+  private final ScheduledExecutorService watchdog =
+    Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+      Thread thread = new Thread(writerGroup, runnable, "write-watchdog");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+  /**
+   * The longest time, in milliseconds, a write to a client may take.
+   */
+  private volatile long writeTimeout = DEFAULT_WRITE_TIMEOUT;
+
+  /**
+   * The accounts of the password file, read once and kept in memory.
+   * New accounts are written to the file by a thread of their own, so
+   * a client who registers does not hold up the others.
+   */
+  private final CredentialStore credentials;
+
+  /**
+   * The list of users shown by the clients.  Changes to it are sent to
+   * the clients once per tick, by a thread of the writers' group.
+   */
+  private final RosterStage roster = new RosterStage(
+    this::sendToAllClients,
+    Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+      Thread ticker = new Thread(writerGroup, runnable, "roster-tick");
+      ticker.setDaemon(true);
+      return ticker;
+    }));
+
+  /**
+   * The size of the outbound queues, and what they do when full.
+   * They apply to clients who log in after they are set.
+   */
+  private volatile int outboundCapacity = DEFAULT_OUTBOUND_CAPACITY;
+  private volatile OverflowPolicy overflowPolicy =
+    OverflowPolicy.COALESCE_ROSTER;
   
+  /**
+   * The events waiting to be passed to the observers.
+   */
+  private final EventBus events = new EventBus(this::fireEvent);
+
   /**
    * Indicates the server is shutting down.
    */
-  private boolean closing = false;
+  private volatile boolean closing = false;
+
+  /**
+   * The counters and latency histograms of the server.
+   */
+  private final ServerMetrics metrics = new ServerMetrics();
+
+  /**
+   * The handlers of the client and server commands, indexed by verb.
+   */
+  private final CommandRegistry commands = new CommandRegistry(metrics);
+
+  /**
+   * Writes the metrics out for the console.
+   */
+  private final MetricsReport report = new MetricsReport(metrics);
   
   
   //Constructors ****************************************************
@@ -73,6 +220,32 @@ public class EchoServer extends Observable implements Observer
    */
   public EchoServer(ObservableOriginatorServer ooserver)
   {
+    this(ooserver, PASSWORDFILE);
+  }
+
+  /**
+   * Constructs an instance of the echo server that keeps its accounts
+   * in the given password file rather than the usual one.
+   *
+   * @param ooserver The server this class observes.
+   * @param passwordFile The path of the password file.
+   */
+  EchoServer(ObservableOriginatorServer ooserver, String passwordFile)
+  {
+    credentials = new CredentialStore(passwordFile,
+      Executors.newSingleThreadExecutor(runnable ->
+      {
+        Thread registry =
+          new Thread(writerGroup, runnable, "registry-writer");
+        registry.setDaemon(true);
+        return registry;
+      }));
+
+    registerCommands();
+    roster.add("SERVER - main");
+    watchdog.scheduleWithFixedDelay(this::expelStalledClients,
+      WATCHDOG_INTERVAL, WATCHDOG_INTERVAL, TimeUnit.MILLISECONDS);
+
     server = ooserver;
     server.addObserver(this);
   }
@@ -84,33 +257,87 @@ public class EchoServer extends Observable implements Observer
    * This method overrides the one in the AbstractServer class.
    * It has been modified to include a check in order to send
    * messages only to clients who have completed a login.  The
-   * only addition is an IF statement.
+   * clients are now taken from the login index, which only holds
+   * clients who have completed a login.
    *
    * @param msg   Object: The message to be sent
    */
   public void sendToAllClients(Object msg)
   {
-    //The Iterator is used to go through all the elements in the 
-    //client list.
+    broadcast(msg, null);
+  }
 
-    Thread[] clients = server.getClientConnections();
+  /**
+   * Sends the same message to every logged in client that is not
+   * blocking the sender.  The message is built once by the caller and
+   * the same instance is handed to every connection.  The clients
+   * blocking the sender are looked up once, before the fan-out.
+   *
+   * @param msg    The message to be sent
+   * @param sender The loginID of the sender, or null if no block
+   *        check is needed.
+   */
+  private void broadcast(Object msg, String sender)
+  {
+    LoginSet blockers = blocks.getBlockers(sender);
 
-    for (int i = 0; i < clients.length; i++) 
+    for (Map.Entry<String, ConnectionToClient> entry
+           : clientsByLogin.entrySet())
     {
-      ConnectionToClient c = 
-        (ConnectionToClient)(clients[i]);
-      
-      try
-      {
-        //If the client is logged on, send the message
-        if (((Boolean)(c.getInfo("passwordVerified"))).booleanValue())
-          c.sendToClient(msg);
-      }
-      catch (IOException e)
-      {
-	notifyObservers("WARNING - Cannot send a message to a client.");
-      }
+      if (!blockers.contains(entry.getKey()))
+        enqueue(entry.getValue(), msg);
+    }
+  }
+
+  /**
+   * Sets the number of messages that may wait to be sent to a client
+   * and what happens to a message that arrives when there is no more
+   * room.  Applies to clients who log in afterwards.
+   *
+   * @param capacity The size of the outbound queues.
+   * @param policy   What a full queue does with a new message.
+   */
+  public void setOutboundQueues(int capacity, OverflowPolicy policy)
+  {
+    if (capacity < 1)
+      throw new IllegalArgumentException("capacity < 1");
+
+    outboundCapacity = capacity;
+    overflowPolicy = policy;
+  }
+
+  /**
+   * Sets the longest time a write to a client may take.  A client
+   * whose write takes longer is expelled, so that it does not keep a
+   * writer thread from the other clients.
+   *
+   * @param millis The timeout, in milliseconds.
+   */
+  public void setWriteTimeout(long millis)
+  {
+    if (millis < 1)
+      throw new IllegalArgumentException("timeout < 1");
+
+    writeTimeout = millis;
+  }
+
+  /**
+   * Returns the outbound queue of every logged in client, indexed by
+   * loginID.  The queues give the number of messages waiting and
+   * how many were dropped.
+   */
+  public Map<String, OutboundQueue> getOutboundQueues()
+  {
+    Map<String, OutboundQueue> queues =
+      new TreeMap<String, OutboundQueue>();
+
+    for (Map.Entry<ConnectionToClient, OutboundQueue> entry
+           : outboundQueues.entrySet())
+    {
+      queues.put(getSession(entry.getKey()).getLoginID(),
+        entry.getValue());
     }
+    return queues;
   }
 
   /**
@@ -173,445 +400,146 @@ public class EchoServer extends Observable implements Observer
       return;
     }
 
+    ChatSession session = getSession(client);
+    metrics.countMessageIn(command);
+
     // In general, display the command on the server's UI
     // Don't display it if the user is blocked
-    if (!blockedUsers.contains
-          (((String)(client.getInfo("loginID")))))
+    if (!blocks.isBlocking("server", session.getLoginID()))
     {
       // Only display it if the server is on the same channel as
       // the client or is in the 'superchannel'.
       // The server is in the superchannel by default, and this is
       // indicated by serverChannel being null. Modified in phase 6
-      // so it does not display #linedraw commands 
+      // so it does not display #linedraw or #strokes commands 
       if ((serverChannel == null
-         || serverChannel.equals(client.getInfo("channel")))
-	 && !command.startsWith("#linedraw"))
+         || serverChannel.equals(session.getChannel()))
+	 && !command.startsWith("#linedraw")
+	 && !command.startsWith("#strokes"))
       {
         notifyObservers("Message: \"" + command + "\" from " 
-          + client.getInfo("loginID"));
+          + session.getLoginID());
       }
     }
     
     // If the user has logged in, process the command or send
     // the message
-    if (((Boolean)(client.getInfo("passwordVerified"))).booleanValue())
+    if (session.isLoggedIn())
     {
-      // If the command was to list the users.  Added in phase 3.
-      if (command.startsWith("#whoison"))
-        sendListOfClients(client);
-      
-      // If the command was to retrieve the channel. Added phase 3
-      if (command.startsWith("#getchannel"))
-      {
-        try
-        {
-          client.sendToClient("Currently on channel: " 
-                   + client.getInfo("channel"));
-        }
-        catch(IOException e)
-        {
-          notifyObservers("Warning: Error sending message.");
-        }       
-      }
-      
-      // If the command was to send a private message. Added phase 3.
-      if (command.startsWith("#private"))
-        handleCmdPrivate(command, client);
-        
-      // If the command was to change channels.  Added phase 3.
-      if (command.startsWith("#channel"))
-        handleCmdChannel(command, client);
-        
-      // If the command was to return to the main channel.
-      //Added phase 3.
-      if (command.startsWith("#nochannel"))
-        handleCmdChannel("#channel main", client);
-      
-      // If the command was to broadcast a public message.
-      // Added phase 3.
-      if (command.startsWith("#pub"))
-        handleCmdPub(command, client);
-        
-      // If the command was to forward messages. Added phase 3.
-      if (command.startsWith("#fwd"))
-        handleCmdFwd(command, client);
-        
-      // If the command was to stop forwarding messages.
-      // Added phase 3.
-      if (command.startsWith("#unfwd"))
-      {
-        client.setInfo("fwdClient", "");
-      
-        try
-        {
-          client.sendToClient("Messages will no longer be forwarded");
-        }
-        catch(IOException e)
-        {
-          notifyObservers("Warning: Error sending message.");
-        }
-      }
-      
-      // If the command was to block a user.  Added phase 3.
-      if (command.startsWith("#block"))
-        handleCmdBlock(command, client);
-        
-      // If the command was to unblock users.  Added phase 3.
-      if (command.startsWith("#unblock"))
-        handleCmdUnblock(command, client);
-        
-      // If the command was to verify the users a client blocks
-      // Added phase 3.
-      if (command.startsWith("#whoiblock"))
-        handleCmdWhoiblock(client);
-        
-      // If the command was to verify the users who are blocking
-      // the client requesting the check. Added phase 3.
-      if (command.startsWith("#whoblocksme"))
-        checkForBlocks((String)(client.getInfo("loginID")), client);
-
-      // If the command is linedraw, send it to the clients.
-      if (command.startsWith("#linedraw"))
-        sendToAllClients(command);
-	
       // If no command is recognized, send a message to the client's
-      // current channel.
+      // current channel.  Commands are looked up by their verb;
+      // unknown commands are ignored.
       if (!command.startsWith("#"))
       {
-        sendChannelMessage(client.getInfo("loginID") + "> " + command, 
-           (String)client.getInfo("channel"), 
-           (String)(client.getInfo("loginID")));
+        long start = System.nanoTime();
+        sendChannelMessage(session.getLoginID() + "> " + command, 
+           session.getChannel(), session.getLoginID());
+        metrics.recordLatency
+          (ServerMetrics.MESSAGE, System.nanoTime() - start);
+      }
+      else
+      {
+        commands.dispatch(command, client);
       }
     }
     
     //If the user is not logged in, log him in.
     else
     {
+      long start = System.nanoTime();
       clientLoggingIn(command, client);
+      metrics.recordLatency(ServerMetrics.LOGIN, System.nanoTime() - start);
     }
   }
 
   /**
    * This method is called to handle data entered from the Server's
-   * console.  Modified phase 5.
+   * console.  Modified phase 5.  The commands are looked up in the
+   * same registry as the commands of the clients.
    *
    * @param message The message typed by the user.
    */
-  public synchronized void handleMessageFromServerUI(String message)
+  public void handleMessageFromServerUI(String message)
   {
-    //If the command is #quit.  Added in phase 2
-    if (message.startsWith("#quit"))
-      quit();
-
-    //If the command is #stop. Added in phase 2
-    if (message.startsWith("#stop"))
+    //If not a server-side command or is a message is to be displayed
+    if (!(message.startsWith("#")))
     {
-      if(server.isListening())
-      {
-          server.stopListening();
-      } 
-      else
-      {
-        notifyObservers
-             ("Cannot stop the server before it is restarted.");
-      }
-   
-      return;
+      notifyObservers("SERVER MESSAGE> " + message);
+      sendChannelMessage("SERVER MESSAGE> " + message, 
+        (serverChannel == null ? "main" : serverChannel), "server");
     }
-
-    //If the command is #start.  Added in phase 2
-    if (message.startsWith("#start"))
+    else if (!commands.dispatch(message, null))
     {
-      closing = false;
-      if (!server.isListening())
-      {
-        try
-        {
-          server.listen();
-          serverChannel = null;
-        }
-        catch(IOException e)
-        {
-          notifyObservers("Cannot listen.  Terminating server.");
-          quit();
-        }
-      }
-      else
-      {
-        notifyObservers("Server is already running.");
-      }
-      return;
+      notifyObservers("Invalid command.");  
     }
+  }
 
-    //If the command is #close. Added in phase 2
-    if (message.startsWith("#close"))
+  /**
+   * This method gracefully kills the server.
+   */
+  public void quit()
+  {
+    try
     {
       closing = true;
-      sendToAllClients("Server is shutting down.");
-      sendToAllClients("You will be disconnected.");
-
-      try
-      {
-        server.close();
-      }
-      catch(IOException e)
-      {
-        notifyObservers("Cannot close normally. Terminating server.");
-        quit();
-      }
-      return;
-    }
-  
-    //If the command is #getport.  Added in phase 2
-    if (message.startsWith("#getport"))
-    {
-      notifyObservers("Current port: " + server.getPort());
-      return;
-    }
-  
-    //If the command is #setport.  Added in phase 2
-    if (message.startsWith("#setport"))
-    {
-      if ((server.getNumberOfClients() != 0)
-         || (server.isListening()))
-      {
-        notifyObservers("Cannot change port while clients are "
-                    + "connected or while server is listening.");
-      }
-      else 
-      {
-        try
-        {
-          int port = 0;
-          port = Integer.parseInt(message.substring(9));
-
-          //If the port number is invalid
-          if ((port < 1024) || (port > 65535))
-          {
-            notifyObservers("Invalid port number.  Port unchanged.");
-          }
-          else
-          {
-            server.setPort(port);
-            notifyObservers("Port set to " + port);
-          }
-        }
-        catch(Exception e)
-        {
-          notifyObservers("Invalid use of the #setport command.\n" +
-	    "Port unchanged.");
-        }
-      }
-      return;
-    }
-
-    //If command is #whoison (List users)  Added in phase 3.
-    if (message.startsWith("#whoison"))
-    {
-      sendListOfClients(null);
-      return;
+      sayGoodbye("Server is quitting.");
+      server.close();
     }
+    catch(IOException e) {}
 
-    //If the command was a punt command (boot user) Added in phase 3.
-    if (message.startsWith("#punt"))
+    try
     {
-      handleServerCmdPunt(message);
-      return;
+      credentials.close();
     }
-
-    //If message is a #warn command. Added in phase 3.
-    if (message.startsWith("#warn"))
+    catch(IOException e)
     {
-      handleServerCmdWarn(message);
-      return;
+      notifyObservers("ERROR - Password File Not Found");
     }
- 
-    //If command is #channel.  Added in phase 3
-    if (message.startsWith("#channel"))
-    {
-      String oldChannel = serverChannel;
-      if (!(oldChannel == null))
-      {
-        sendChannelMessage
-           ("The server has left this channel.", serverChannel, "");
-      }
-
-      //Added phase 5
-      sendToAllClients("#remove SERVER - "
-        + (oldChannel == null ? "main" : oldChannel));
-      notifyObservers("#remove SERVER - "
-        + (oldChannel == null ? "main" : oldChannel));
-      sendToAllClients("#add SERVER - " + serverChannel);
-      notifyObservers("#add SERVER - " + serverChannel);
-  
-      try
-      {
-        serverChannel = message.substring(9);
-      }
-      catch (StringIndexOutOfBoundsException e)
-      {
-        serverChannel = null;
-        notifyObservers("Server will now receive all messages.");
-      }
+    System.exit(0);
+  }
   
-      if (serverChannel != null)
-      {
-        sendChannelMessage("The server has joined this channel.", 
-          serverChannel, "");
-      }
-      notifyObservers("Now on channel: " + serverChannel);
-      return;
-    }
-
-    //If command is #nochannel.  Added in phase 3.
-    if (message.startsWith("#nochannel"))
-    {
-      if (serverChannel != null)
-      {
-        sendChannelMessage
-          ("The server has left this channel.", serverChannel, "");
-      }
+  /**
+   * This method overrides the one inherited from the Observable class.  This is
+   * necessary as the setChanged() method is protected and cannot be accessed
+   * from the GUI adapter classes.
+   *
+   * The observers are not called here: the argument is queued on the
+   * event bus and passed to them by its dispatcher, so a network
+   * thread never waits for the user interface.
+   *
+   * @param arg The argument passed to the observers.
+   */
+  public void notifyObservers(Object arg)
+  {
+    events.post(arg);
+  }
 
-      sendToAllClients("#remove SERVER - "
-        + (serverChannel == null ? "main" : serverChannel));
-      notifyObservers("#remove SERVER - "
-        + (serverChannel == null ? "main" : serverChannel));
-      serverChannel = null;
-      sendToAllClients("#add SERVER - main");
-      notifyObservers("#add SERVER - main");
-      return;
-    }
-
-    //If command is #pub.  Added in phase 3.
-    if (message.startsWith("#pub"))
-    {
-      handleCmdPub(message, null);
-      return;
-    }
-
-    //If command is #getchannel
-    if (message.startsWith("#getchannel"))
-    {
-      if (server.isListening() || server.getNumberOfClients() > 0)
-        notifyObservers("Currently on channel: " + serverChannel);
-      else
-        notifyObservers("Server has no active channels.");
-     
-      return;
-    }
-
-    //If the command is to block a user.  Added in phase 3.
-    if (message.startsWith("#block"))
-    {
-      handleServerCmdBlock(message);
-      return;
-    }
-
-    //If the command was to unblock.  Added in phase 3.
-    if (message.startsWith("#unblock"))
-    { 
-      handleCmdUnblock(message, null);
-      return;
-    }
-
-    //If the command is to check which users are blocked.  
-    //Added in phase 3.
-    if (message.startsWith("#whoiblock"))
-    {
-      handleCmdWhoiblock(null);
-      return;
-    }
-
-    //If command to send a private message.  Added in phase 3.
-    if (message.startsWith("#private"))
-    {
-      handleCmdPrivate(message, null);
-      return;
-    }
-    
-    //If command is to check users who are blocking the server
-    //Added phase 3.
-    if (message.startsWith("#whoblocksme"))
-    {
-      checkForBlocks("server", null);
-      return;
-    }
-
-    //If command is a help command.
-    if (message.startsWith("#?") || message.startsWith("#help"))
-    {
-      notifyObservers("\nServer-side command list:"
-      + "\n#block <loginID> -- Blocks all messages from the "
-          + "specified client."
-      + "\n#channel <channel> -- Connects to the specified channel."
-      + "\n#close -- Stops the server and disconnects all users."
-      + "\n#getchannel -- Gets the channel the server is currently "
-          + "connected to."
-      + "\n#getport -- Gets the port the server is listening on."
-      + "\n#help OR #? -- Lists all commands and their use."
-      + "\n#nochannel -- Returns the server to the super-channel."
-      + "\n#private <loginID> <msg> -- Sends a private message to "
-          + "the specified client."
-      + "\n#pub -- Sends a public message."
-      + "\n#punt <loginID> -- Kicks client out of the chatroom."
-      + "\n#quit -- Terminates the server and disconnects all "
-          + "clients."
-      + "\n#setport <newport> -- Specify the port the server will "
-          + "listen on."
-      + "\n#start -- Makes the server restart accepting connections."
-      + "\n#stop -- Makes the server stop accepting new connections."
-      + "\n#unblock -- Unblock messages from all blocked clients."
-      + "\n#unblock <loginID> -- Unblock messages from the specified"
-          + " client."
-      + "\n#warn <loginID> -- Sends a warning message to the "
-          + "specified client."
-      + "\n#whoblockme -- List clients who are blocking messages "
-          + "from the server."
-      + "\n#whoiblock -- List all clients that the server is "
-          + "blocking messages from."
-      + "\n#whoison -- Gets a list of all users and channel "
-          + "they are connected to.");
-      return;
-    }
-
-
-    //If not a server-side command or is a message is to be displayed
-    if (!(message.startsWith("#")))
-    {
-      notifyObservers("SERVER MESSAGE> " + message);
-      sendChannelMessage("SERVER MESSAGE> " + message, 
-        (serverChannel == null ? "main" : serverChannel), "server");
-    }
-    else
-    {
-      notifyObservers("Invalid command.");  
-    }
+  /**
+   * Returns the counters and latency histograms of the server.
+   */
+  public ServerMetrics getMetrics()
+  {
+    return metrics;
   }
 
   /**
-   * This method gracefully kills the server.
+   * Sets what passes the events of the server to its observers.  A
+   * graphical interface sets its event thread, so that its observers
+   * are called on it.
+   *
+   * @param dispatcher The dispatcher, such as EventQueue::invokeLater.
    */
-  public void quit()
+  public void setEventDispatcher(Executor dispatcher)
   {
-    try
-    {
-      closing = true;
-      sendToAllClients("Server is quitting.");
-      sendToAllClients("You will be disconnected.");
-      server.close();
-    }
-    catch(IOException e) {}
-    System.exit(0);
+    events.setDispatcher(dispatcher);
   }
-  
+
   /**
-   * This method overrides the one inherited from the Observable class.  This is
-   * necessary as the setChanged() method is protected and cannot be accessed
-   * from the GUI adapter classes.
+   * Passes an event taken off the event bus to the observers.
    *
    * @param arg The argument passed to the observers.
    */
-  public void notifyObservers(Object arg)
+  private void fireEvent(Object arg)
   {
     setChanged();
     super.notifyObservers(arg);
@@ -678,15 +606,10 @@ public class EchoServer extends Observable implements Observer
   {
     notifyObservers("A new client is attempting to connect " +
                    "to the server.");
-    client.setInfo("loginID", "");
-    client.setInfo("channel", "");
-    client.setInfo("passwordVerified", new Boolean(false));
-    client.setInfo("creatingNewAccount", new Boolean(false));
-    client.setInfo("fwdClient", "");
-    client.setInfo("blockedUsers", new Vector());
+    client.setInfo("session", new ChatSession(client));
     try
     {
-      client.sendToClient("Enter your login ID:");
+      sendTo(client, "Enter your login ID:");
     }
     catch(IOException e)
     {
@@ -704,7 +627,7 @@ public class EchoServer extends Observable implements Observer
    *
    * @param client The connection to the client who disconnected.
    */
-  protected synchronized void clientDisconnected
+  protected void clientDisconnected
         (ConnectionToClient client)
   {
     handleDisconnect(client);
@@ -717,7 +640,7 @@ public class EchoServer extends Observable implements Observer
    * @param client The client who caused the exception
    * @param exception The exception thrown.
    */
-  synchronized protected void clientException
+  protected void clientException
     (ConnectionToClient client, Throwable exception)
   {
     handleDisconnect(client);
@@ -725,6 +648,112 @@ public class EchoServer extends Observable implements Observer
   
   // Private methods ------------------------------------------------  
 
+  /**
+   * Registers the handler of every command with the command registry.
+   * The commands sent by clients and those typed on the server's
+   * console have their own tables, since some verbs differ.
+   */
+  private void registerCommands()
+  {
+    // Commands sent by clients.  Added in phase 3.
+    commands.addClientCommand("#whoison",
+      (command, client) -> sendListOfClients(client));
+    commands.addClientCommand("#getchannel",
+      (command, client) -> sendToClientOrServer(client,
+        "Currently on channel: " + getSession(client).getChannel()));
+    commands.addClientCommand("#private", this::handleCmdPrivate);
+    commands.addClientCommand("#channel", this::handleCmdChannel);
+    commands.addClientCommand("#nochannel",
+      (command, client) -> handleCmdChannel("#channel main", client));
+    commands.addClientCommand("#pub", this::handleCmdPub);
+    commands.addClientCommand("#fwd", this::handleCmdFwd);
+    commands.addClientCommand("#unfwd",
+      (command, client) -> handleCmdUnfwd(client));
+    commands.addClientCommand("#block", this::handleCmdBlock);
+    commands.addClientCommand("#unblock", this::handleCmdUnblock);
+    commands.addClientCommand("#whoiblock",
+      (command, client) -> handleCmdWhoiblock(client));
+    commands.addClientCommand("#whoblocksme",
+      (command, client) -> checkForBlocks
+        (getSession(client).getLoginID(), client));
+
+    // Added in phase 6
+    commands.addClientCommand("#linedraw", this::handleCmdDraw);
+
+    // A batch of segments from a drawing pad, relayed as it is.
+    commands.addClientCommand("#strokes", this::handleCmdDraw);
+    commands.addClientCommand("#clear", this::handleCmdClear);
+
+    // Commands typed on the server's console.  Added in phases 2
+    // and 3.
+    commands.addServerCommand("#quit", (command, client) -> quit());
+    commands.addServerCommand("#stop",
+      (command, client) -> handleServerCmdStop());
+    commands.addServerCommand("#start",
+      (command, client) -> handleServerCmdStart());
+    commands.addServerCommand("#close",
+      (command, client) -> handleServerCmdClose());
+    commands.addServerCommand("#getport",
+      (command, client) -> notifyObservers
+        ("Current port: " + server.getPort()));
+    commands.addServerCommand("#setport",
+      (command, client) -> handleServerCmdSetport(command));
+    commands.addServerCommand("#whoison",
+      (command, client) -> sendListOfClients(null));
+    commands.addServerCommand("#punt",
+      (command, client) -> handleServerCmdPunt(command));
+    commands.addServerCommand("#warn",
+      (command, client) -> handleServerCmdWarn(command));
+    commands.addServerCommand("#channel",
+      (command, client) -> handleServerCmdChannel(command));
+    commands.addServerCommand("#nochannel",
+      (command, client) -> handleServerCmdNochannel());
+    commands.addServerCommand("#pub", this::handleCmdPub);
+    commands.addServerCommand("#getchannel",
+      (command, client) -> handleServerCmdGetchannel());
+    commands.addServerCommand("#block",
+      (command, client) -> handleServerCmdBlock(command));
+    commands.addServerCommand("#unblock", this::handleCmdUnblock);
+    commands.addServerCommand("#whoiblock",
+      (command, client) -> handleCmdWhoiblock(null));
+    commands.addServerCommand("#private", this::handleCmdPrivate);
+    commands.addServerCommand("#whoblocksme",
+      (command, client) -> checkForBlocks("server", null));
+    commands.addServerCommand("#?",
+      (command, client) -> handleServerCmdHelp());
+    commands.addServerCommand("#help",
+      (command, client) -> handleServerCmdHelp());
+
+    // Reports on the metrics, which never wait for the message path
+    commands.addServerCommand("#stats",
+      (command, client) -> handleServerCmdStats(command));
+    commands.addServerCommand("#top",
+      (command, client) -> notifyObservers
+        (report.getTop(getOutboundQueues())));
+  }
+
+  /**
+   * This method is called to handle a stats command issued by the
+   * server.  Without an argument it reports on the whole server, and
+   * with the verb of a command it reports on that command.
+   *
+   * @param message The command to execute.
+   */
+  private void handleServerCmdStats(String message)
+  {
+    String verb = message.substring("#stats".length()).trim();
+
+    if (verb.length() == 0)
+    {
+      notifyObservers(report.getSummary
+        (clientsByLogin.size(), channels.getMemberCounts()));
+    }
+    else
+    {
+      notifyObservers(report.getCommand(verb));
+    }
+  }
+
   /**
    * This method is called when the server receives the command to
    * check which users a client is blocking.
@@ -734,19 +763,14 @@ public class EchoServer extends Observable implements Observer
    */
   private void handleCmdWhoiblock(ConnectionToClient client)
   {
-    Vector blocked;
+    String blocker = "server";
     
     // If the client is not the server
     if (client != null)
-    {
-      blocked = new Vector((Vector)(client.getInfo("blockedUsers")));
-    }
-    else
-    {
-      blocked = new Vector(blockedUsers);
-    }
+      blocker = getSession(client).getLoginID();
     
-    Iterator blockedIterator = blocked.iterator();
+    Iterator<String> blockedIterator =
+      new TreeSet<String>(blocks.getBlocked(blocker)).iterator();
   
     // If some clients are blocked
     if (blockedIterator.hasNext())
@@ -756,7 +780,7 @@ public class EchoServer extends Observable implements Observer
       // Send the list of blocked users to the client
       while (blockedIterator.hasNext())
       {
-        String blockedUser = (String)blockedIterator.next();
+        String blockedUser = blockedIterator.next();
         sendToClientOrServer(client,
           "Messages from " + blockedUser + " are blocked.");
       }
@@ -778,23 +802,17 @@ public class EchoServer extends Observable implements Observer
   private void handleCmdUnblock
     (String command, ConnectionToClient client)
   {
-    Vector blocked = null;
+    String blocker = "server";
     boolean removedUser = false;
     String userToUnblock = null;
   
     //If the client is not the server
     if (client != null)
-    {
-      blocked = (Vector)(client.getInfo("blockedUsers"));
-    }
-    else
-    {
-      blocked = blockedUsers;
-    }
+      blocker = getSession(client).getLoginID();
   
     // Check if any users were blocked. 
     // If none were, notify the client
-    if (blocked.size() == 0)
+    if (blocks.getBlocked(blocker).isEmpty())
     {
       sendToClientOrServer(client,
         "No blocking is in effect.");
@@ -817,20 +835,25 @@ public class EchoServer extends Observable implements Observer
     if (userToUnblock.toLowerCase().equals("server"))
       userToUnblock = "server";
 
-    // Get rid of the blocked user or all blocked users
-    Iterator blockedIterator = blocked.iterator();
-    while (blockedIterator.hasNext())
-    {
-      String blockedUser = (String)blockedIterator.next();
+    // Get rid of the blocked user or all blocked users.
+    List<String> unblocked;
+    if (userToUnblock.equals(""))
+      unblocked = blocks.unblockAll(blocker);
+    else if (blocks.unblock(blocker, userToUnblock))
+      unblocked = Collections.singletonList(userToUnblock);
+    else
+      unblocked = Collections.emptyList();
 
-      if(blockedUser.equals(userToUnblock)
-        || userToUnblock.equals(""))
-      { 
-        blockedIterator.remove();
-        removedUser = true;
-        sendToClientOrServer(client,
-          "Messages from " + blockedUser + " will now be displayed.");
-      }
+    // Removing a block may let forwarded messages go further.
+    if (!unblocked.isEmpty())
+      forwarding.invalidate();
+
+    Iterator<String> unblockedIterator = unblocked.iterator();
+    while (unblockedIterator.hasNext())
+    {
+      removedUser = true;
+      sendToClientOrServer(client, "Messages from "
+        + unblockedIterator.next() + " will now be displayed.");
     }
 
     // Display error if user not found
@@ -850,9 +873,6 @@ public class EchoServer extends Observable implements Observer
    */
   private void handleCmdBlock(String command, ConnectionToClient client)
   {
-    //This vector will be modified than returned.
-    Vector addBlock = null;
-  
     // This next line will verify a client was specified.  If not,
     // return an error message.
     try
@@ -868,11 +888,11 @@ public class EchoServer extends Observable implements Observer
       }
 
       // If the user tries to block himself
-      if (userToBlock.equals(client.getInfo("loginID")))
+      if (userToBlock.equals(getSession(client).getLoginID()))
       {
         try
         {
-          client.sendToClient("Cannot block the sending of "
+          sendTo(client, "Cannot block the sending of "
                    + "messages to yourself.");
         }
         catch(IOException ex)
@@ -889,27 +909,27 @@ public class EchoServer extends Observable implements Observer
            || userToBlock.equals("server"))
         {
           // If the user we want to block is online
-          if (isLoginBeingUsed(userToBlock, false)
+          if (isLoginBeingUsed(userToBlock)
               && !userToBlock.equals("server"))
           {
             ConnectionToClient toBlock = getClient(userToBlock);
             
             // If that user is forwarding to the client requesting
             // the block, end the forwarding and notify them both.
-            if (((String)(toBlock.getInfo("fwdClient")))
-               .equals(((String)(client.getInfo("loginID")))))
+            if (getSession(client).getLoginID()
+               .equals(forwarding.getForward(userToBlock)))
             {
-              toBlock.setInfo("fwdClient", "");
+              forwarding.removeForward(userToBlock);
               try
               {
-                toBlock.sendToClient("Forwarding to " 
-                     + client.getInfo("loginID")
+                sendTo(toBlock, "Forwarding to " 
+                     + getSession(client).getLoginID()
                      + " has been cancelled because "
-                     + client.getInfo("loginID") + " is now "
+                     + getSession(client).getLoginID() + " is now "
                      + "blocking messages from you.");
                 
-                client.sendToClient("Forwarding from " 
-                     + toBlock.getInfo("loginID")
+                sendTo(client, "Forwarding from " 
+                     + getSession(toBlock).getLoginID()
                      + " to you has been terminated.");
               }
               catch(IOException ioe)
@@ -919,9 +939,10 @@ public class EchoServer extends Observable implements Observer
             }
           }
   
-          //Add the blocked user to the user's blocked users vector
-          addBlock = (Vector)(client.getInfo("blockedUsers"));
-          addBlock.addElement(userToBlock);  
+          //Add the block to the block graph.  It may cut short the
+          //routes of forwarded messages.
+          blocks.block(getSession(client).getLoginID(), userToBlock);
+          forwarding.invalidate();
         }
         
         //If the user is trying to block a non-existing user.
@@ -929,8 +950,7 @@ public class EchoServer extends Observable implements Observer
         {
           try
           {
-            client.sendToClient
-               ("User " + userToBlock + " does not exist.");
+            sendTo(client, "User " + userToBlock + " does not exist.");
           }
           catch(IOException ioe)
           {
@@ -943,7 +963,7 @@ public class EchoServer extends Observable implements Observer
         //will now be blocked.
         try
         {
-          client.sendToClient("Messages from " + userToBlock
+          sendTo(client, "Messages from " + userToBlock
                    + " will be blocked.");
         }
         catch(IOException ex)
@@ -956,7 +976,7 @@ public class EchoServer extends Observable implements Observer
     {
       try
       {
-        client.sendToClient("ERROR - usage #block <loginID>");
+        sendTo(client, "ERROR - usage #block <loginID>");
       }
       catch(IOException ex)
       {
@@ -981,9 +1001,9 @@ public class EchoServer extends Observable implements Observer
       try
       {
         // If the client is trying to forward to himself.
-        if (destineeName.equals(client.getInfo("loginID"))) 
+        if (destineeName.equals(getSession(client).getLoginID())) 
         {
-          client.sendToClient("ERROR - Can't forward to self");
+          sendTo(client, "ERROR - Can't forward to self");
           return;
         } 
         else
@@ -991,7 +1011,7 @@ public class EchoServer extends Observable implements Observer
           // If the client is trying to forward to the server
           if (destineeName.toLowerCase().equals("server")) 
           {
-            client.sendToClient("ERROR - Can't forward to SERVER");
+            sendTo(client, "ERROR - Can't forward to SERVER");
             return;
           } 
           else
@@ -999,7 +1019,7 @@ public class EchoServer extends Observable implements Observer
             // If the client specified a non-existing client.
             if (getClient(destineeName) == null) 
             {
-              client.sendToClient("ERROR - Client does not exist");
+              sendTo(client, "ERROR - Client does not exist");
               return;
             }
           }
@@ -1010,25 +1030,14 @@ public class EchoServer extends Observable implements Observer
         notifyObservers("Warning: Error sending message.");
       }
 
-      // Find out if we are already forwarding. This will be used
-      // later when we check for a forwarding loop
-      String tempFwdClient = (String)(client.getInfo("fwdClient"));
-      
-      // Get the connection to the intended destinee.
-      ConnectionToClient destinee = getClient(destineeName);
-
-      // If the destinee is not blocking messages from the client
+      // If the destinee is blocking messages from the client
       // requesting the forwarding.
-      if (!(((Vector)(destinee.getInfo("blockedUsers")))
-         .contains((String)(client.getInfo("loginID")))))
-      {
-        client.setInfo("fwdClient", destineeName);
-      }        
-      else
+      if (blocks.isBlocking(destineeName,
+            getSession(client).getLoginID()))
       {
         try
         {
-          client.sendToClient("Cannot forward to " 
+          sendTo(client, "Cannot forward to " 
             + destineeName + " because " + destineeName 
             + " is blocking messages from you.");
         }
@@ -1041,18 +1050,17 @@ public class EchoServer extends Observable implements Observer
       
       try
       {
-        // If the client can be forwarded to without causing a loop
-        if (isValidFwdClient(client))
+        // The forwarding is only recorded if it does not cause a loop
+        if (forwarding.setForward
+              (getSession(client).getLoginID(), destineeName))
         {
-          client.sendToClient("Messages will be forwarded to: " 
-            + client.getInfo("fwdClient"));
+          sendTo(client, "Messages will be forwarded to: " 
+            + destineeName);
         }
         else 
         {
-          // Reset forwarding to original value
-          client.setInfo("fwdClient", tempFwdClient);
-          client.sendToClient
-             ("ERROR - Can't forward because a loop would result");
+          sendTo(client,
+            "ERROR - Can't forward because a loop would result");
         }
       }
       catch(IOException e)
@@ -1064,7 +1072,7 @@ public class EchoServer extends Observable implements Observer
     {
       try
       {
-        client.sendToClient("ERROR - usage: #fwd <loginID>");
+        sendTo(client, "ERROR - usage: #fwd <loginID>");
       }
       catch(IOException ex)
       {
@@ -1073,6 +1081,26 @@ public class EchoServer extends Observable implements Observer
     }
   }
 
+  /**
+   * This method is called when the server receives the command
+   * to stop forwarding messages.
+   *
+   * @param client The client who was forwarding its messages.
+   */
+  private void handleCmdUnfwd(ConnectionToClient client)
+  {
+    forwarding.removeForward(getSession(client).getLoginID());
+
+    try
+    {
+      sendTo(client, "Messages will no longer be forwarded");
+    }
+    catch(IOException e)
+    {
+      notifyObservers("Warning: Error sending message.");
+    }
+  }
+
   /**
    * This method is called when the server receives the command
    * to broadcast a public message.
@@ -1084,7 +1112,7 @@ public class EchoServer extends Observable implements Observer
     String sender = "";
     try
     {
-      sender = (String)(client.getInfo("loginID"));
+      sender = getSession(client).getLoginID();
     }
     catch(NullPointerException e)
     {
@@ -1093,33 +1121,22 @@ public class EchoServer extends Observable implements Observer
     
     try
     {
-      Thread[] clients = server.getClientConnections();
+      String publicMessage = "PUBLIC MESSAGE from " 
+        + sender + "> " + command.substring(5);
 
-      //Iterate through all the clients.
-      for (int i = 0; i < clients.length; i++)
-      {
-        ConnectionToClient c = (ConnectionToClient)(clients[i]);
-        
-        // If the client selected by the iterator is not blocking
-        // messages from the sender.
-        if (!(((Vector)(c.getInfo("blockedUsers"))).contains(sender))
-          && ((Boolean)(c.getInfo("passwordVerified"))).booleanValue())
-        {
-          c.sendToClient("PUBLIC MESSAGE from " 
-               + sender + "> " + command.substring(5));
-        }
-      }
+      // Send it to every client that is not blocking messages from
+      // the sender.
+      broadcast(publicMessage, sender);
       
       // If the server is not blocking messages from the sender.
-      if (!blockedUsers.contains(sender))
+      if (!blocks.isBlocking("server", sender))
       {
-        notifyObservers("PUBLIC MESSAGE from " 
-          + sender + "> " + command.substring(5));
+        notifyObservers(publicMessage);
       }
     }
-    catch(IOException e)
+    catch(StringIndexOutOfBoundsException e)
     {
-      notifyObservers("Warning: Error sending message.");
+      sendToClientOrServer(client, "ERROR - usage: #pub <msg>");
     }  
   }
 
@@ -1132,7 +1149,7 @@ public class EchoServer extends Observable implements Observer
    */
   private void handleCmdChannel(String command, ConnectionToClient client)
   {
-    String oldChannel = (String)(client.getInfo("channel"));
+    String oldChannel = getSession(client).getChannel();
 
     // Default new channel is the original channel that users
     // start in
@@ -1141,37 +1158,44 @@ public class EchoServer extends Observable implements Observer
     if(command.length() > 9)
       newChannel = command.substring(9);
    
-    client.setInfo("channel", newChannel);
+    getSession(client).setChannel(newChannel);
+    channels.move(oldChannel, newChannel, client);
+    dropWhiteboard(oldChannel);
+
+    // The client's pad now shows the pad of its new channel.  This is
+    // queued behind any drawing of the old channel still waiting.
+    enqueue(client, "#clear");
+    enqueue(client, deferSnapshot(newChannel));
+
     if (!oldChannel.equals("main"))
     {
-      sendChannelMessage(client.getInfo("loginID") 
+      sendChannelMessage(getSession(client).getLoginID() 
          + " has left channel: " + oldChannel, oldChannel, "");
     }
  
     if (!newChannel.equals("main"))
     {
-      sendChannelMessage(client.getInfo("loginID") 
+      sendChannelMessage(getSession(client).getLoginID() 
          + " has joined channel: " + newChannel, newChannel, "");
     }
    
     //Added phase 5.
     // Remove the client or the server from all list boxes
-    sendToAllClients("#remove " + client.getInfo("loginID")
-      + " - " + oldChannel);
-    notifyObservers("#remove " + client.getInfo("loginID")
+    roster.remove(getSession(client).getLoginID() + " - " + oldChannel);
+    notifyObservers("#remove " + getSession(client).getLoginID()
       + " - " + oldChannel);
-    sendToAllClients("#add " + client.getInfo("loginID")
-      + " - " + client.getInfo("channel"));
-    notifyObservers("#add " + client.getInfo("loginID")
-      + " - " + client.getInfo("channel"));
+    roster.add(getSession(client).getLoginID()
+      + " - " + getSession(client).getChannel());
+    notifyObservers("#add " + getSession(client).getLoginID()
+      + " - " + getSession(client).getChannel());
 
     // If the server receives all messages or is in the same channel
     // as the client requesting the change, it will display a message
     // indicating the change.
     if (serverChannel == null
-       || serverChannel.equals(client.getInfo("channel")))
+       || serverChannel.equals(getSession(client).getChannel()))
     {
-      notifyObservers(client.getInfo("loginID") 
+      notifyObservers(getSession(client).getLoginID() 
         + " has joined channel: " + newChannel);
     }  
   }
@@ -1206,7 +1230,7 @@ public class EchoServer extends Observable implements Observer
 
       try
       {
-        sender = (String)(client.getInfo("loginID"));
+        sender = getSession(client).getLoginID();
       }
       catch (NullPointerException e)
       {
@@ -1217,7 +1241,7 @@ public class EchoServer extends Observable implements Observer
       if (loginID.toLowerCase().equals("server"))
       {
         //If the server is not blocking messages from the sender
-        if (!blockedUsers.contains(sender))
+        if (!blocks.isBlocking("server", sender))
         {
           notifyObservers("PRIVATE MESSAGE from " + sender 
             + "> " + message);
@@ -1228,7 +1252,7 @@ public class EchoServer extends Observable implements Observer
         {
           try
           {
-            client.sendToClient("Cannot send message because " 
+            sendTo(client, "Cannot send message because " 
                 + loginID + " is blocking messages from you.");
           }
           catch(IOException e)
@@ -1243,50 +1267,42 @@ public class EchoServer extends Observable implements Observer
       {
         try
         {
-          Thread[] clients = server.getClientConnections();
+          // Find the destinee
+          ConnectionToClient c = getClient(loginID);
 
-          //Iterate through all the clients to find the destinee
-          for (int i = 0; i < clients.length; i++)
+          if (c != null)
           {
-            ConnectionToClient c = 
-                (ConnectionToClient)(clients[i]);
-
-            if (c.getInfo("loginID").equals(loginID))
+            // Once found, check if the user is not blocking messages
+            // from the sender.
+            if (!blocks.isBlocking(loginID, sender))
             {
               
-              // Once found, check if the user is not blocking messages
-              // from the sender.
-              if (!(((Vector)(c.getInfo("blockedUsers")))
-                  .contains(sender)))
+              // If he is not, check for a client to forward
+              // messages to.
+
+              if (forwarding.isForwarding(loginID))
               {
-                
-                // If he is not, check for a client to forward
-                // messages to.
-
-                if (!c.getInfo("fwdClient").equals(""))
-                {
-                    getFwdClient(c, sender).sendToClient
-                       ("Forwarded> PRIVATE MESSAGE from " 
-                       + sender + " to " + c.getInfo("loginID")
-                       + "> " + message);
-                }
-                else
-                {
-                    c.sendToClient("PRIVATE MESSAGE from " 
-                       + sender + "> " + message);
-                }
-                notifyObservers("Private message: \"" 
-                   + message + "\" from " + sender + " to " 
-                   + c.getInfo("loginID"));
+                  sendTo(getFwdClient(c, sender),
+                     "Forwarded> PRIVATE MESSAGE from " + sender
+                     + " to " + getSession(c).getLoginID()
+                     + "> " + message);
               }
-              
-              //If the user is blocking messages from the sender.
               else
               {
-                sendToClientOrServer(client,
-                  "Cannot send message because " 
-                  + loginID + " is blocking messages from you.");
+                  sendTo(c, "PRIVATE MESSAGE from " 
+                     + sender + "> " + message);
               }
+              notifyObservers("Private message: \"" 
+                 + message + "\" from " + sender + " to " 
+                 + getSession(c).getLoginID());
+            }
+            
+            //If the user is blocking messages from the sender.
+            else
+            {
+              sendToClientOrServer(client,
+                "Cannot send message because " 
+                + loginID + " is blocking messages from you.");
             }
           }
         }
@@ -1306,378 +1322,270 @@ public class EchoServer extends Observable implements Observer
 
   /**
    * This methods retrieves the list of people who are blocking
-   * the user calling the #whoblocksme command.
+   * the user calling the #whoblocksme command.  The blockers are
+   * taken from the block graph.
    *
    * @param login The loginID of the user wishing to know if he
    *               /she is being blocked by others.
    */
   private void checkForBlocks(String login, ConnectionToClient client)
   {
-    String results = "User block check:";
-
-    if (!login.equals("server"))
-      if (blockedUsers.contains(login))
-        results += "\nThe server is blocking messages from you.";
+    StringBuilder results = new StringBuilder("User block check:");
+    Set<String> blockers = new TreeSet<String>(blocks.getBlockers(login));
 
-    Thread[] clients = server.getClientConnections();
+    if (blockers.remove("server"))
+      results.append("\nThe server is blocking messages from you.");
 
-    for (int i = 0; i < clients.length; i++)
+    for (String blocker : blockers)
     {
-      ConnectionToClient c = (ConnectionToClient)(clients[i]);
-    
-      Vector blocked = (Vector)(c.getInfo("blockedUsers"));
-      if (blocked.contains(login))
-      {
-        results += "\nUser " + c.getInfo("loginID") 
-                + " is blocking your messages.";
-      }
+      results.append("\nUser ").append(blocker)
+        .append(" is blocking your messages.");
     }
-    if (results.equals("User block check:"))
-      results += "\nNo user is blocking messages from you.";
+
+    if (blockers.isEmpty() && !blocks.isBlocking("server", login))
+      results.append("\nNo user is blocking messages from you.");
       
-    sendToClientOrServer(client, results);
+    sendToClientOrServer(client, results.toString());
   }
   
   
   /**
-   * Verifies the fwding client to make sure it is valid and to make
-   * certain no endless loops will occur.  Added in phase 3.
+   * Finds the logged in client with the name given as an argument.
+   * Added in phase 3.
    *
-   * @param client ConnectionToClient: The original client
+   * @param loginID   String: The client loginID
    */
-
-  private boolean isValidFwdClient(ConnectionToClient client) 
+  ConnectionToClient getClient(String loginID) 
   {
-    boolean clientFound = false;
-    ConnectionToClient testClient = client;
-
-    // This block will make sure the client exists
-    Thread[] clients = server.getClientConnections();
-    for (int i = 0; i < clients.length; i++) 
-    {
-      ConnectionToClient tempc = 
-           (ConnectionToClient)(clients[i]);
-      if (tempc.getInfo("loginID")
-           .equals(testClient.getInfo("fwdClient")))
-      {
-        clientFound = true;
-      }
-    }
-
-    if (!clientFound)
-      return false;
-
-    // This block will check for endless loops
-    String theClients[] = new String[server.getNumberOfClients() + 1];
-    int i = 0;
-
-    // Loops until it finds a client that doesn't forward
-    while (testClient.getInfo("fwdClient")!="") 
-    {
-      // The name is added to the array
-      theClients[i] = (String)(testClient.getInfo("loginID"));
+    if (loginID == null)
+      return null;
 
-      // If the name is in the array, return false as
-      // there is an endless loop
-      for(int j = 0; j < i; j++) 
-      {
-        if (theClients[j].equals(theClients[i]))
-          return false;
-      }
-      i++;
-
-      // Set "testClient" to the forwarded ConnectionToClient instance
-      testClient = getClient((String)testClient.getInfo("fwdClient"));
-    }
-    return true;
+    // Returns null if the client wasn't found
+    return clientsByLogin.get(loginID);
   }
 
   /**
-   * Finds the client with the name given as an argument.  Added in
-   * phase 3.
+   * Returns the session of a client.  The session is attached to the
+   * connection when the client connects.
    *
-   * @param loginID   String: The client loginID
+   * @param client The client's connection to the server.
    */
-  private ConnectionToClient getClient(String loginID) 
+  private static ChatSession getSession(ConnectionToClient client)
   {
-    // Create an Iterator containning all the client's
-    Thread[] clients = server.getClientConnections();
-
-    // Loops through a list of all the clients to find the one
-    // with the loginID specified
-    for (int i = 0; i < clients.length; i++) 
-    {
-      ConnectionToClient c = 
-                (ConnectionToClient)(clients[i]);
-      if (c.getInfo("loginID").equals(loginID))
-        return c;
-    }
-    return null; // If client wasn't found, return null
+    return (ChatSession)(client.getInfo("session"));
   }
   
   /**
    * This method will verify a client's login and password.
-   * Added in phase 3.
+   * Added in phase 3.  The message is interpreted according to the
+   * step of the login the client's session is at.
    *
    * @param message The client's login or password.
    * @param client The client's connection to the server.
    */
   private void clientLoggingIn(String message, ConnectionToClient client)
   {
+    ChatSession session = getSession(client);
+
     // Ignore blanks, if the user just hits 'enter'
     if (message.equals(""))
       return;
   
-    // If the client has not logged in yet and has entered
-    // guest as his login, create a new account
-    if ((client.getInfo("loginID").equals("")) 
-       && (message.equals("guest"))) 
+    switch (session.getState())
     {
-      // Save a flag so that when the next message arrives we
-      // know that it is the login ID for the new account
-      client.setInfo("creatingNewAccount", new Boolean(true));
-
-      try
-      {
-        client.sendToClient
-           ("\n*** CREATING NEW ACCOUNT ***\nEnter new LoginID :");
-      }
-      catch(IOException e)
-      {
-        try
-	{
-          client.close();
-	}
-	catch (IOException ex) {}
-      }
-    }
-    else
-    { 
-      // If creating a new account, and the user has just submitted
-      // his new login, process it
-      if ((client.getInfo("loginID").equals("")) 
-         && (((Boolean)(client.getInfo("creatingNewAccount")))
-            .booleanValue()))
-      {
-        client.setInfo("loginID", message);
-        try
+      case AWAITING_LOGIN:
+        // If the client has entered guest as his login, create a new
+        // account
+        if (message.equals("guest")) 
         {
-          // Added in phase 5 - forces the clients UI to print
-          // asterisks for each character as the password is entered
-          client.sendToClient("#echo");
-          client.sendToClient("Enter new password :");
+          // The next message will be the login ID for the new account
+          session.setState(LoginState.CREATING_LOGIN);
+          sendOrClose(client,
+            "\n*** CREATING NEW ACCOUNT ***\nEnter new LoginID :");
         }
-        catch(IOException e)
+        else
         {
-	  try
-	  {
-            client.close();
-	  }
-	  catch (IOException ex) {}
+          session.setLoginID(message);
+          session.setState(LoginState.AWAITING_PASSWORD);
+
+          // Added in phase 5 - echo asterisks 
+          if (sendOrClose(client, "#echo"))
+            sendOrClose(client, "Enter password:");
         }
-      }
-      else
-      { 
-        // If the client is creating a new account and has just
-        // entered the password, then process it  
-        if ((!client.getInfo("loginID").equals("")) 
-           && (((Boolean)(client.getInfo("creatingNewAccount")))
-             .booleanValue()))
+        break;
+
+      case CREATING_LOGIN:
+        // The user has just submitted his new login
+        session.setLoginID(message);
+        session.setState(LoginState.CREATING_PASSWORD);
+
+        // Added in phase 5 - forces the clients UI to print
+        // asterisks for each character as the password is entered
+        if (sendOrClose(client, "#echo"))
+          sendOrClose(client, "Enter new password :");
+        break;
+
+      case CREATING_PASSWORD:
+        // If the login is not in the password file, accept 
+        // the new account
+        if (!isLoginUsed(session.getLoginID())) 
         {
-          // If the login is not in the password file, accept 
-          // the new account
-          if (!isLoginUsed((String)(client.getInfo("loginID")))) 
-          {
-            client.setInfo("passwordVerified", new Boolean(true));
-            client.setInfo("creatingNewAccount", new Boolean(false));
-            client.setInfo("channel", "main");
-            addClientToRegistry
-                 ((String)(client.getInfo("loginID")), message);
-            notifyObservers
-                 (client.getInfo("loginID") + " has logged on.");
-            makeClientList(client);
-            try
-            {  
-              // Added in phase 5 - gets out of the mode where
-              // asterisks are displayed
-              client.sendToClient("#noecho");
-              sendToAllClients
-                  (client.getInfo("loginID") + " has logged on.");
-            }   
-            catch(IOException e)
-            {
-              notifyObservers("Warning: Error sending message.");
-            }
-          } 
-          else 
-          { 
-            // If creating a new account, but the login is already used
-            // then keep prompting for a login
-            client.setInfo("loginID", "");
-            client.setInfo("creatingNewAccount", new Boolean(false));
-            try
-            {
-              client.sendToClient
-                 ("Login already in use.  Enter login ID:");
-            }
-            catch(IOException e)
-            {
-	      try
-	      {
-                client.close();
-	      }
-	      catch (IOException ex) {}
-            }
-          }
+          session.setState(LoginState.SAVING_ACCOUNT);
+          addClientToRegistry(client, message);
+        } 
+        else 
+        { 
+          // If creating a new account, but the login is already used
+          // then keep prompting for a login
+          session.setLoginID("");
+          session.setState(LoginState.AWAITING_LOGIN);
+          sendOrClose(client, "Login already in use.  Enter login ID:");
         }
+        break;
 
-        // If the client is not creating a new account and has
-        // entered a login
+      case AWAITING_PASSWORD:
+        // Verify the client's login.
+        if (isValidPwd(session.getLoginID(), message, true)
+            && !isLoginBeingUsed(session.getLoginID()))
+        {
+          session.setChannel("main");
+          session.setState(LoginState.LOGGED_IN);
+          registerClient(client);
+          completeLogin(client);
+        } 
         else
-        { 
-          if (client.getInfo("loginID").equals("")) 
-          {
-            client.setInfo("loginID", message);
-            try
-            {    
-              // Added in phase 5 - echo asterisks 
-              client.sendToClient("#echo");
-              client.sendToClient("Enter password:");
-            }
-            catch(IOException e)
-            {
-	      try
-	      {
-                client.close();
-	      }
-      	      catch (IOException ex) {}	       	
-            }         
-          } 
-          else 
-          {
-            // If the client is not creating a new account 
-            // and has entered a password
-            // Verify the client's login.
-            if ((isValidPwd((String)(client.getInfo("loginID")),
-                          message, true)) 
-                && (!isLoginBeingUsed(
-                      (String)(client.getInfo("loginID")), true)))
-            {
-              client.setInfo
-                 ("passwordVerified", new Boolean(true));
-              client.setInfo("channel", "main");
-
-              // notify all users that a new client has logged on
-              notifyObservers
-                   (client.getInfo("loginID") + " has logged on.");
-              makeClientList(client);
-              try  
-              {              
-                // Added in phase 5 -- stop echoing asterisks
-                client.sendToClient("#noecho");
-                sendToAllClients
-                   (client.getInfo("loginID") + " has logged on.");
-              }
-              catch(IOException e)
-              {
-                notifyObservers("Warning: Error sending message.");
-              } 
-            } 
-            else
-            {
-              // If the login id or the password is invalid 
-              try
-              {
-                if (isLoginBeingUsed
-                   ((String)(client.getInfo("loginID")), true))
-                {
-                  client.setInfo("loginID", "");
-                  client.sendToClient("Login ID is already logged on."
-                       + "\nEnter LoginID:");
-                } 
-                else 
-                {
-                  client.setInfo("loginID", "");
-                  client.sendToClient("\nIncorrect login "
-                    + "or password\nEnter LoginID:");
-                }
-              }
-              catch(IOException e)
-              { 
-	        try
-		{
-                  client.close();
-		}
-		catch (IOException ex) {}  
-              }
-            }
-          }
+        {
+          // If the login id or the password is invalid 
+          String reply = isLoginBeingUsed(session.getLoginID())
+            ? "Login ID is already logged on.\nEnter LoginID:"
+            : "\nIncorrect login or password\nEnter LoginID:";
+
+          session.setLoginID("");
+          session.setState(LoginState.AWAITING_LOGIN);
+          sendOrClose(client, reply);
         }
-      }
+        break;
+
+      default:
+        break;
     }
   }
 
   /**
-   * Opens the password file and adds a client's account info
-   * to it.  Added in phase 3.
+   * Announces a client who has just completed a login and sends it
+   * the list of clients.
    *
-   * @param clientLoginID   String: The client's loginID
-   * @param clientPassword   String: The client's password
+   * @param client The client's connection to the server.
    */
-  private void addClientToRegistry
-        (String clientLoginID, String clientPassword)
+  private void completeLogin(ConnectionToClient client)
   {
-    try 
+    String loginID = getSession(client).getLoginID();
+
+    metrics.countLogin();
+    // notify all users that a new client has logged on
+    notifyObservers(loginID + " has logged on.");
+    makeClientList(client);
+    try  
+    {              
+      // Added in phase 5 -- stop echoing asterisks
+      sendTo(client, "#noecho");
+      sendToAllClients(loginID + " has logged on.");
+    }
+    catch(IOException e)
     {
-      // ------------------
-      // Part 1 : Transfer the data from the password file to a
-      // character buffer
-      FileInputStream inputFile = new FileInputStream(PASSWORDFILE);
-      byte buff[] = new byte[inputFile.available()];
+      notifyObservers("Warning: Error sending message.");
+    } 
+  }
 
-      for (int i = 0; i < buff.length; i++) 
+  /**
+   * Sends a message to a client who is logging in.  If it cannot be
+   * sent, the client is disconnected.
+   *
+   * @param client The client's connection to the server.
+   * @param message The message to send.
+   * @return false if the message could not be sent.
+   */
+  private boolean sendOrClose(ConnectionToClient client, String message)
+  {
+    try
+    {
+      sendTo(client, message);
+      return true;
+    }
+    catch(IOException e)
+    {
+      try
       {
-        int character = inputFile.read();
-        buff[i] = (byte)character;
+        client.close();
       }
-      inputFile.close(); // Close the input stream
+      catch (IOException ex) {}
+      return false;
+    }
+  }
 
+  /**
+   * Adds a client who has just completed a login to the login index
+   * and the main channel, and gives it an outbound queue.
+   *
+   * @param client The client's connection to the server.
+   */
+  private void registerClient(ConnectionToClient client)
+  {
+    // The loginID is interned so that it matches the block lists by
+    // reference.
+    ChatSession session = getSession(client);
+    session.setLoginID(session.getLoginID().intern());
+
+    outboundQueues.put(client, new OutboundQueue(client, this, writers,
+      outboundCapacity, overflowPolicy));
+    clientsByLogin.put(session.getLoginID(), client);
+    channels.join("main", client);
+  }
 
-      // -----------------
-      // Part 2 : Delete the password file since it will be
-      // created again
-      File fileToBeDeleted = new File(PASSWORDFILE);
-      fileToBeDeleted.delete();
-
-
-      // -----------------
-      // Part 3 : Transfer the buffer and the client data to a
-      // new password file with the same name as the first
-      FileOutputStream outputFile = 
-               new FileOutputStream(PASSWORDFILE);
-      for(int i = 0; i < buff.length; i++) // Write the buffer
-         outputFile.write(buff[i]);
-
-      for(int i = 0; i < clientLoginID.length(); i++)
-        // Write the loginID
-        outputFile.write(clientLoginID.charAt(i));
-
-      outputFile.write(SPACE); // Write a space character
-
-      for (int i = 0; i < clientPassword.length(); i++)
-        // Write the password
-        outputFile.write(clientPassword.charAt(i));
-
-      outputFile.write(RETURN); // Write a carriage return
-      outputFile.write(LINEBREAK); // Write a line break
+  /**
+   * Appends a client's account info to the password file.  Added in
+   * phase 3.  The client is logged in once the account is on disk, by
+   * the thread that wrote it.  An account that could not be written
+   * is reported, and the client is logged in anyway, for this session.
+   * A login that fails on that thread is reported too, and the client
+   * is told and disconnected.
+   *
+   * @param client   The client's connection to the server.
+   * @param clientPassword   String: The client's password
+   */
+  private void addClientToRegistry
+        (ConnectionToClient client, String clientPassword)
+  {
+    ChatSession session = getSession(client);
 
-      outputFile.close(); // Close the output stream
+    credentials.addAccount(session.getLoginID(), clientPassword)
+      .whenComplete((done, failure) ->
+      {
+        if (failure != null)
+          notifyObservers("ERROR - Password File Not Found");
 
-    } 
-    catch (IOException e) 
-    {
-      notifyObservers("ERROR - Password File Not Found");
-    }
+        // The future would keep an exception thrown here to itself,
+        // and leave the client waiting for its login forever
+        try
+        {
+          session.setChannel("main");
+          session.setState(LoginState.LOGGED_IN);
+          registerClient(client);
+
+          // A client who left while its account was being written is
+          // cleaned up as if it had left after logging in
+          if (session.isDisconnected())
+            handleDisconnect(client);
+          else
+            completeLogin(client);
+        }
+        catch (RuntimeException e)
+        {
+          notifyObservers("ERROR - Cannot log in " + session.getLoginID()
+            + ": " + e);
+          expel(client, "ERROR - Your login could not be completed.");
+        }
+      });
   }
   
   /**
@@ -1696,7 +1604,8 @@ public class EchoServer extends Observable implements Observer
   /**
    * Verifies if the loginID, and if necessary the password,
    * correspond to an account in the password file.  Added in
-   * phase 3.
+   * phase 3.  The accounts are looked up in the credential store
+   * rather than by reading the file.
    *
    * @param loginID The client's loginID
    * @param password The client's password
@@ -1708,61 +1617,10 @@ public class EchoServer extends Observable implements Observer
   {
     try 
     {
-      FileInputStream inputFile = new FileInputStream(PASSWORDFILE);
-      boolean eoln = false; // Flag indicating the End Of Line
-      boolean eof = false;  // Flag indicating the End Of File
-
-      while (!eof)  //Repeat while the eof hasn't been found
-      {
-        eoln = false;
-        String str = "";
-        while (!eoln) // Repeat until a carriage return is found
-        {
-          int character = inputFile.read();
-          
-          if(character == -1) // If character indicates end of file
-          {
-            eof = true;
-            break;
-          } 
-          else
-          { 
-            if (character == LINEBREAK) // If the char is a linebreak
-            {
-              eoln = true;
-
-              // Verifies if the loginID is identical to the loginID
-              // in the file and, if necessary, verifies if the
-              // password is also identical to the password in the
-              // file
-              if ((str.substring(0, str.indexOf(" "))
-                          .equals(loginID))
-                &&
-                (
-                  (str.substring(str.indexOf(" ") + 1)
-                          .equals(password))
-                  || (!verifyPassword)
-                ))
-              {
-                return true;
-              }
-
-              // This condition checks if the char is anything other 
-              // than a carriage return. The carriage return is 
-              // ignored therefore there is no need to handle it
-            } 
-            else
-            { 
-              if (character != RETURN)
-              {
-                // Add the char to the string
-                str = str + (char)character; 
-              }
-            }
-          }
-        }
-      }
-      inputFile.close(); // Close the input stream
+      if (verifyPassword)
+        return credentials.isValidPwd(loginID, password);
+      else
+        return credentials.isLoginUsed(loginID);
     } 
     catch (IOException e) 
     {
@@ -1773,51 +1631,24 @@ public class EchoServer extends Observable implements Observer
 
   /**
    * Verifies if there is a client already using that loginID
-   * connected to the server.  Added in phase 3.
+   * connected to the server.  Added in phase 3.  Only clients that
+   * have completed a login are considered, so a client in the process
+   * of logging in is never found by its own check.
    *
    * @param loginID   String: The client's loginID
-   * @param checkForDup boolean: If true, we are in the process of
-   *   logging a client in, and we want to check if there is already
-   *   a user with this loginID logged in. If false, we just want to
-   *   check if some other client is logged in.
    */
-  private boolean isLoginBeingUsed(String loginID, boolean checkForDup) 
+  private boolean isLoginBeingUsed(String loginID) 
   {
-    // The following indicates whether we have already found the
-    // loginID. If we are just looking for any user (checkForDup is
-    // false) then used must be true since we want to return true
-    // when we find the first match; otherwise we want to return
-    // true when we find a second match.
-    boolean used = !checkForDup;
-
     if (loginID.toLowerCase().equals("server"))
       return true;
 
-    // Creates an Iterator containing all the clients
-    Thread[] clients = server.getClientConnections();
-
-    // Loops through the clients to see if one using the loginID 
-    // specified
-    for (int i = 0; i < clients.length; i++) 
-    {
-      ConnectionToClient tempc = 
-           (ConnectionToClient)(clients[i]);
-      if (tempc.getInfo("loginID").equals(loginID)) 
-      {
-        if (used)
-          return true;
-
-        // This is placed after the condition because false should
-        // returned only if the name is found twice in the list
-        used = true;
-      }
-    }
-    return false; // The name was not found
+    return clientsByLogin.containsKey(loginID);
   }
 
   /**
    * This method will send a message only to a specified channel.
-   * Added in phase 3.
+   * Added in phase 3.  The recipients are taken from the channel
+   * registry.
    *
    * @param message The message to send.
    * @param channel The channel to broadcast on.
@@ -1826,31 +1657,21 @@ public class EchoServer extends Observable implements Observer
   private void sendChannelMessage
          (String message, String channel, String login)
   {
-    Thread[] clients = server.getClientConnections();
+    LoginSet blockers = blocks.getBlockers(login);
 
-    for (int i = 0; i < clients.length; i++)
+    // Only the members of the channel are visited
+    for (ConnectionToClient c : channels.getMembers(channel))
     {
-      ConnectionToClient c = (ConnectionToClient)(clients[i]);
-  
-      if (c.getInfo("channel").equals(channel)
-         && !(((Vector)(c.getInfo("blockedUsers"))).contains(login)))
+      if (!blockers.contains(getSession(c).getLoginID()))
       {
-        try
+        // Actually send the message
+        if (forwarding.isForwarding(getSession(c).getLoginID()))
         {
-          // Actually send the message
-          if (!(c.getInfo("fwdClient").equals("")))
-          {
-            getFwdClient(c, login)
-                 .sendToClient("Forwarded> " + message);
-          }
-          else
-          {
-            c.sendToClient(message);
-          }
+          enqueue(getFwdClient(c, login), "Forwarded> " + message);
         }
-        catch(IOException e)
+        else
         {
-          notifyObservers("Warning: Error sending message.");
+          enqueue(c, message);
         }
       }
     }
@@ -1858,7 +1679,9 @@ public class EchoServer extends Observable implements Observer
 
   /**
    * Finds the client a message should be forwarded to.  Added
-   * in phase 3.
+   * in phase 3.  The route of the message is taken from the
+   * forwarding graph; only the blocks of the sender are checked
+   * against it.
    *
    * @param c    The first recipient
    * @param sender   The original sender
@@ -1866,95 +1689,62 @@ public class EchoServer extends Observable implements Observer
   private ConnectionToClient getFwdClient
            (ConnectionToClient c, String sender) 
   {
-    //This vector will hold the login IDs of all previous recipients
-    //of the forwarded message in order to check for blocking.
-    Vector pastRecipients = new Vector();
-    
-    //Add the first recipient to the vector
-    pastRecipients.addElement((String)(c.getInfo("loginID")));
-    
-    // Loops until it finds a client that doesn't forward messages
-    while (!c.getInfo("fwdClient").equals("")) 
-    {
-      Thread[] clients = server.getClientConnections();
+    ForwardingRoute route =
+      forwarding.getRoute(getSession(c).getLoginID());
+    LoginSet blockers = blocks.getBlockers(sender);
+    String destinee = route.getDestination();
+    String notice = null;
 
-      for (int i = 0; i < clients.length; i++)
+    // If anyone on the route is blocking the original sender, the
+    // message stops just before the first of them.
+    if (!blockers.isEmpty())
+    {
+      for (int hop = 1; hop < route.getLength(); hop++)
       {
-        ConnectionToClient tempc =
-              (ConnectionToClient)(clients[i]);
-        
-        if (tempc.getInfo("loginID").equals(c.getInfo("fwdClient")))
+        if (blockers.contains(route.getRecipient(hop)))
         {
-          // We have found the client being forwarded to by c
-          // Now check that c is not blocking the original sender
-          if (!(((Vector)(tempc.getInfo("blockedUsers")))
-                              .contains(sender)))
-          {
-            //Look in the previous recipients to see if any of them
-            //are blocked.
-            Iterator pastIterator = pastRecipients.iterator();
-            
-            while (pastIterator.hasNext())
-            {
-              String pastRecipient = (String)pastIterator.next();
-              if (((Vector)(tempc.getInfo("blockedUsers")))
-                   .contains(pastRecipient))
-              {
-                //This means one of the past recipients is blocked
-                //by the client supposed to be forwarded to.
-                try
-                {
-                  c.sendToClient("Cannot forward message.  A past "
-                    + "recipient of this message is blocked by "
-                    + (String)(tempc.getInfo("loginID")));
-                }
-                catch(IOException e)
-                {
-                  notifyObservers("Warning: Error sending message.");
-                }
-                return c;  
-              }
-            }
- 
-            // Now continue looking for further forwarding
-            // if necessary
-            if(!tempc.getInfo("fwdClient").equals(""))
-            {   
-              //If we get by the block checks, we can reset the
-              //connection to check for forwarding by the client
-              //to whom the message was forwarded.
-              c = tempc;
-              
-              //Add this client to the past recipients of the message.
-              pastRecipients.addElement((String)(c.getInfo("loginID")));
-            }
-            else
-            {
-              //This client is the final destinee.  If we got by the
-              //block checks, we can forward the message to him.
-              return tempc;
-            }
-          }
-          else
-          {
-            //The original sender of the message is being blocked
-            //by the recipient.
-            try
-            {
-              c.sendToClient("Cannot forward message.  Original "
-                           + "sender is blocked by " 
-                           + ((String)(c.getInfo("fwdClient"))));
-            }
-            catch(IOException e)
-            {
-              notifyObservers("Warning: Error sending message.");
-            }
-            return c;
-          }
+          destinee = route.getRecipient(hop - 1);
+          notice = "Cannot forward message.  Original sender is "
+            + "blocked by " + route.getRecipient(hop);
+          break;
         }
       }
     }
-    return c;
+
+    // The route was cut short by a client blocking one of the
+    // previous recipients of the message.
+    if (notice == null && route.getCutBy() != null)
+    {
+      if (blockers.contains(route.getCutBy()))
+      {
+        notice = "Cannot forward message.  Original sender is "
+          + "blocked by " + route.getCutBy();
+      }
+      else
+      {
+        notice = "Cannot forward message.  A past recipient of this "
+          + "message is blocked by " + route.getCutBy();
+      }
+    }
+
+    ConnectionToClient destineeClient = getClient(destinee);
+
+    // The client being forwarded to is no longer logged on
+    if (destineeClient == null)
+      return c;
+
+    if (notice != null)
+    {
+      try
+      {
+        sendTo(destineeClient, notice);
+      }
+      catch(IOException e)
+      {
+        notifyObservers("Warning: Error sending message.");
+      }
+    }
+    return destineeClient;
   }
 
   /**
@@ -1978,9 +1768,14 @@ public class EchoServer extends Observable implements Observer
     
     for (int i = 0; i < clients.length; i++)
     {
-      ConnectionToClient tempc = (ConnectionToClient)(clients[i]);
-      clientInfo.addElement((String)(tempc.getInfo("loginID"))
-        + " --- on channel: " + (String)(tempc.getInfo("channel")));
+      ChatSession session = getSession((ConnectionToClient)(clients[i]));
+
+      // A client that has only just connected may not have a session
+      if (session != null)
+      {
+        clientInfo.addElement(session.getLoginID()
+          + " --- on channel: " + session.getChannel());
+      }
     }
     
     //Sort the vector containing the information.
@@ -2032,7 +1827,7 @@ public class EchoServer extends Observable implements Observer
         //Check if we are attempting to block a valid user
         if (isLoginUsed(userToBlock))
         {
-          blockedUsers.addElement(userToBlock);  
+          blocks.block("server", userToBlock);
         }
         else
         {
@@ -2060,34 +1855,13 @@ public class EchoServer extends Observable implements Observer
    */
   private void handleServerCmdPunt(String message)
   {
-    Thread[] clients = server.getClientConnections();
-      
     try
     {
-      //Iterate to get the connection to the client we want to expell
-      for (int i = 0; i < clients.length; i++)
-      {
-        ConnectionToClient c = (ConnectionToClient)(clients[i]);
-        if (c.getInfo("loginID").equals(message.substring(6)))
-        {
-          //Ignore the exception that might occur as we only want
-          //to get rid of this user.
-          try
-          {
-            c.sendToClient
-                ("You have been expelled from this server.");
-          }
-          catch(IOException e) {}
-          finally
-          {
-	    try
-	    {
-              c.close();
-	    }
-	    catch (IOException ex) {}  
-          }
-        }
-      }
+      //Get the connection to the client we want to expell
+      ConnectionToClient c = getClient(message.substring(6));
+
+      if (c != null)
+        expel(c, "You have been expelled from this server.");
     }
     catch(StringIndexOutOfBoundsException ex)
     {
@@ -2102,30 +1876,26 @@ public class EchoServer extends Observable implements Observer
    */
   private void handleServerCmdWarn(String message)
   {
-    Thread[] clients = server.getClientConnections();
-      
     try
     {
-      //Iterate to get the connection to the client we want to warn
-      for (int i = 0; i < clients.length; i++)
+      //Get the connection to the client we want to warn
+      ConnectionToClient c = getClient(message.substring(6));
+
+      if (c != null)
       {
-        ConnectionToClient c = (ConnectionToClient)(clients[i]);
-        if (c.getInfo("loginID").equals(message.substring(6)))
+        //If an exception occurs, boot the user being warned.
+        //He is causing more trouble than he's worth!
+        try
+        {
+          sendTo(c, "Continue and you WILL be expelled.");
+        }
+        catch(IOException e) 
         {
-          //If an exception occurs, boot the user being warned.
-          //He is causing more trouble than he's worth!
           try
           {
-            c.sendToClient("Continue and you WILL be expelled.");
-          }
-          catch(IOException e) 
-          {
-	    try
-	    {
-              c.close();
-	    }
-	    catch (IOException ex) {}  
+            c.close();
           }
+          catch (IOException ex) {}  
         }
       }
     }
@@ -2135,6 +1905,261 @@ public class EchoServer extends Observable implements Observer
     } 
   }
 
+  /**
+   * This method is called to handle a stop command.  Added in
+   * phase 2.
+   */
+  private void handleServerCmdStop()
+  {
+    if(server.isListening())
+    {
+        server.stopListening();
+    } 
+    else
+    {
+      notifyObservers
+           ("Cannot stop the server before it is restarted.");
+    }
+  }
+
+  /**
+   * This method is called to handle a start command.  Added in
+   * phase 2.
+   */
+  private void handleServerCmdStart()
+  {
+    closing = false;
+    if (!server.isListening())
+    {
+      try
+      {
+        server.listen();
+        serverChannel = null;
+      }
+      catch(IOException e)
+      {
+        notifyObservers("Cannot listen.  Terminating server.");
+        quit();
+      }
+    }
+    else
+    {
+      notifyObservers("Server is already running.");
+    }
+  }
+
+  /**
+   * This method is called to handle a close command.  Added in
+   * phase 2.
+   */
+  private void handleServerCmdClose()
+  {
+    closing = true;
+    sayGoodbye("Server is shutting down.");
+
+    try
+    {
+      server.close();
+    }
+    catch(IOException e)
+    {
+      notifyObservers("Cannot close normally. Terminating server.");
+      quit();
+    }
+  }
+  /**
+   * Tells every logged in client that it is about to be disconnected,
+   * and waits for the notices to be written, so that the clients get
+   * them before their connections are closed.  A client that does not
+   * read them is not waited for longer than the write timeout.
+   *
+   * @param notice The notice saying why the clients are disconnected.
+   */
+  private void sayGoodbye(String notice)
+  {
+    long deadline = System.currentTimeMillis() + writeTimeout;
+    List<OutboundQueue> queues =
+      new ArrayList<OutboundQueue>(outboundQueues.values());
+
+    // The notices are all queued before any connection is closed, so
+    // that none of the clients is told of the others leaving first
+    sendToAllClients(notice);
+    sendToAllClients("You will be disconnected.");
+    for (OutboundQueue queue : queues)
+      queue.closeWhenDrained();
+
+    try
+    {
+      for (OutboundQueue queue : queues)
+        queue.awaitDrained(Math.max(1, deadline - System.currentTimeMillis()));
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+
+  /**
+   * This method is called to handle a setport command.  Added in
+   * phase 2.
+   *
+   * @param message The command to execute.
+   */
+  private void handleServerCmdSetport(String message)
+  {
+    if ((server.getNumberOfClients() != 0)
+       || (server.isListening()))
+    {
+      notifyObservers("Cannot change port while clients are "
+                  + "connected or while server is listening.");
+    }
+    else 
+    {
+      try
+      {
+        int port = 0;
+        port = Integer.parseInt(message.substring(9));
+
+        //If the port number is invalid
+        if ((port < 1024) || (port > 65535))
+        {
+          notifyObservers("Invalid port number.  Port unchanged.");
+        }
+        else
+        {
+          server.setPort(port);
+          notifyObservers("Port set to " + port);
+        }
+      }
+      catch(Exception e)
+      {
+        notifyObservers("Invalid use of the #setport command.\n" +
+	    "Port unchanged.");
+      }
+    }
+  }
+
+  /**
+   * This method is called to handle a channel command issued by the
+   * server.  Added in phase 3.
+   *
+   * @param message The command to execute.
+   */
+  private void handleServerCmdChannel(String message)
+  {
+    String oldChannel = serverChannel;
+    if (!(oldChannel == null))
+    {
+      sendChannelMessage
+         ("The server has left this channel.", serverChannel, "");
+    }
+
+    //Added phase 5
+    roster.remove("SERVER - " + (oldChannel == null ? "main" : oldChannel));
+    notifyObservers("#remove SERVER - "
+      + (oldChannel == null ? "main" : oldChannel));
+
+    try
+    {
+      serverChannel = message.substring(9);
+    }
+    catch (StringIndexOutOfBoundsException e)
+    {
+      serverChannel = null;
+      notifyObservers("Server will now receive all messages.");
+    }
+
+    // The entry is added once the new channel is known
+    roster.add("SERVER - "
+      + (serverChannel == null ? "main" : serverChannel));
+    notifyObservers("#add SERVER - "
+      + (serverChannel == null ? "main" : serverChannel));
+
+    if (serverChannel != null)
+    {
+      sendChannelMessage("The server has joined this channel.", 
+        serverChannel, "");
+    }
+    notifyObservers("Now on channel: " + serverChannel);
+  }
+
+  /**
+   * This method is called to handle a nochannel command issued by the
+   * server.  Added in phase 3.
+   */
+  private void handleServerCmdNochannel()
+  {
+    if (serverChannel != null)
+    {
+      sendChannelMessage
+        ("The server has left this channel.", serverChannel, "");
+    }
+
+    roster.remove("SERVER - "
+      + (serverChannel == null ? "main" : serverChannel));
+    notifyObservers("#remove SERVER - "
+      + (serverChannel == null ? "main" : serverChannel));
+    serverChannel = null;
+    roster.add("SERVER - main");
+    notifyObservers("#add SERVER - main");
+  }
+
+  /**
+   * This method is called to handle a getchannel command issued by
+   * the server.
+   */
+  private void handleServerCmdGetchannel()
+  {
+    if (server.isListening() || server.getNumberOfClients() > 0)
+      notifyObservers("Currently on channel: " + serverChannel);
+    else
+      notifyObservers("Server has no active channels.");
+  }
+
+  /**
+   * This method is called to handle a help command.
+   */
+  private void handleServerCmdHelp()
+  {
+    notifyObservers("\nServer-side command list:"
+    + "\n#block <loginID> -- Blocks all messages from the "
+        + "specified client."
+    + "\n#channel <channel> -- Connects to the specified channel."
+    + "\n#close -- Stops the server and disconnects all users."
+    + "\n#getchannel -- Gets the channel the server is currently "
+        + "connected to."
+    + "\n#getport -- Gets the port the server is listening on."
+    + "\n#help OR #? -- Lists all commands and their use."
+    + "\n#nochannel -- Returns the server to the super-channel."
+    + "\n#private <loginID> <msg> -- Sends a private message to "
+        + "the specified client."
+    + "\n#pub -- Sends a public message."
+    + "\n#punt <loginID> -- Kicks client out of the chatroom."
+    + "\n#quit -- Terminates the server and disconnects all "
+        + "clients."
+    + "\n#setport <newport> -- Specify the port the server will "
+        + "listen on."
+    + "\n#start -- Makes the server restart accepting connections."
+    + "\n#stats -- Shows throughput, sessions and command latencies."
+    + "\n#stats <command> -- Shows the latency of the specified "
+        + "command."
+    + "\n#stop -- Makes the server stop accepting new connections."
+    + "\n#top -- Lists the clients with the most messages waiting "
+        + "to be sent."
+    + "\n#unblock -- Unblock messages from all blocked clients."
+    + "\n#unblock <loginID> -- Unblock messages from the specified"
+        + " client."
+    + "\n#warn <loginID> -- Sends a warning message to the "
+        + "specified client."
+    + "\n#whoblockme -- List clients who are blocking messages "
+        + "from the server."
+    + "\n#whoiblock -- List all clients that the server is "
+        + "blocking messages from."
+    + "\n#whoison -- Gets a list of all users and channel "
+        + "they are connected to.");
+  }
+
   /**
    * Used by methods that can output to either the server or a
    * client. Simply sends a message.
@@ -2146,7 +2171,7 @@ public class EchoServer extends Observable implements Observer
   {
     try
     {      
-      client.sendToClient(message);
+      sendTo(client, message);
     }
     catch(NullPointerException npe)
     {
@@ -2159,39 +2184,311 @@ public class EchoServer extends Observable implements Observer
   }
   
   /**
-   * This method creates the client list.  Added phase 5.
+   * Sends a message to a client.  A logged in client has an outbound
+   * queue, and the message is queued for one of the writer threads, so
+   * the caller never waits for the client.  A client without a queue
+   * has not completed a login and is sent the message directly.
    *
-   * @param client The connection to the client who has just logged on.
+   * @param client The client to send the message to.
+   * @param message The message to send.
+   * @exception IOException If the client has no queue and the message
+   *            could not be sent.
    */
-  private synchronized void makeClientList(ConnectionToClient client)
+  void sendTo(ConnectionToClient client, Object message)
+    throws IOException
   {
-    Thread[] clients = server.getClientConnections();
-    
-    try
+    if (client == null)
+      throw new NullPointerException();
+
+    OutboundQueue queue = outboundQueues.get(client);
+
+    if (queue != null)
+      queue.add(message);
+    else
+      writeTo(client, message);
+  }
+
+  /**
+   * Writes a message to a client.  Writes to the same client are
+   * serialized, since the client's output stream cannot be shared
+   * by two threads; writes to other clients can go on in parallel.
+   *
+   * The object stream of a connection keeps a reference to every
+   * object written to it, and so does the stream reading it on the
+   * client's side, for as long as the client is connected.  The stream
+   * is therefore reset every STREAM_RESET_INTERVAL messages, which
+   * costs one byte on the wire and clears both tables.
+   *
+   * A message given as a Supplier is built here, on the thread writing
+   * it, and not written at all if it comes out null.
+   *
+   * @param client The client to send the message to.
+   * @param message The message to send.
+   * @exception IOException If the message could not be sent.
+   */
+  void writeTo(ConnectionToClient client, Object message)
+    throws IOException
+  {
+    if (message instanceof Supplier)
     {
-      for (int i = 0; i < clients.length; i++)
+      message = ((Supplier<?>)message).get();
+      if (message == null)
+        return;
+    }
+
+    // The session is the client's send lock, so a client whose write
+    // blocks only holds up the threads writing to that client.  A
+    // client that has no session yet is locked by its connection.
+    ChatSession session = getSession(client);
+    Object lock = (session != null) ? session : client;
+
+    synchronized (lock)
+    {
+      try
       {
-        ConnectionToClient c = (ConnectionToClient)(clients[i]);
-        if (!c.equals(client)
-            && (((Boolean)(c.getInfo("passwordVerified"))).booleanValue()))
-        {
-          client.sendToClient("#add " + c.getInfo("loginID") + " - " 
-            + c.getInfo("channel"));
-        }
+        client.sendToClient(message);
+      }
+      catch (IOException e)
+      {
+        metrics.countSendFailure();
+        throw e;
+      }
+      metrics.countMessageOut(message);
+
+      if (session != null
+         && session.countSent() >= STREAM_RESET_INTERVAL)
+      {
+        session.streamReset();
+        client.forceResetAfterSend();
       }
-      
-      client.sendToClient("#add SERVER - "
-        + (serverChannel == null ? "main" : serverChannel));
-      notifyObservers("#add " + client.getInfo("loginID") + " - " 
-          + client.getInfo("channel"));
-      sendToAllClients("#add " + client.getInfo("loginID") + " - " 
-          + client.getInfo("channel"));
+    }
+  }
+
+  /**
+   * Sends a message to a client, reporting a failure on the server's
+   * UI rather than to the caller.
+   *
+   * @param client The client to send the message to.
+   * @param message The message to send.
+   */
+  private void enqueue(ConnectionToClient client, Object message)
+  {
+    try
+    {
+      sendTo(client, message);
     }
     catch(IOException e)
     {
       notifyObservers("Warning: Error sending message.");
     }
   }
+
+  /**
+   * Sends a client a last message and disconnects it.  The connection
+   * is closed by the writer thread once the messages queued before the
+   * notice, and the notice itself, have been written.
+   *
+   * @param client The client to expel.
+   * @param notice The message telling the client it is expelled.
+   */
+  private void expel(ConnectionToClient client, String notice)
+  {
+    OutboundQueue queue = outboundQueues.get(client);
+
+    if (queue != null)
+    {
+      queue.addAndClose(notice);
+      return;
+    }
+
+    //Ignore the exception that might occur as we only want
+    //to get rid of this user.
+    try
+    {
+      writeTo(client, notice);
+    }
+    catch(IOException e) {}
+    finally
+    {
+      try
+      {
+        client.close();
+      }
+      catch (IOException ex) {}
+    }
+  }
+
+  /**
+   * Expels a client whose outbound queue overflowed, or whose write
+   * took longer than the write timeout.  This is done like a #punt,
+   * except that no notice is sent since the client is not reading its
+   * messages.  The connection is closed on the watchdog thread so that
+   * the sender that found the queue full is not held up by the
+   * disconnection, and so that it is closed even when every writer
+   * thread is blocked.
+   *
+   * @param client The client to expel.
+   */
+  void expelSlowClient(ConnectionToClient client)
+  {
+    notifyObservers(getSession(client).getLoginID() + " has been expelled "
+      + "for not reading its messages.");
+
+    watchdog.execute(() ->
+    {
+      try
+      {
+        client.close();
+      }
+      catch (IOException ex) {}
+    });
+  }
+
+  /**
+   * Expels the clients whose writes have taken longer than the write
+   * timeout.  Runs on the watchdog thread.
+   */
+  private void expelStalledClients()
+  {
+    for (Map.Entry<ConnectionToClient, OutboundQueue> entry
+           : outboundQueues.entrySet())
+    {
+      if (entry.getValue().closeIfStalled(writeTimeout))
+        expelSlowClient(entry.getKey());
+    }
+  }
+
+  /**
+   * This method handles the #linedraw and #strokes commands.  The
+   * segments are recorded on the pad of the client's channel and the
+   * command is relayed as it is to the members of that channel.
+   *
+   * @param command The drawing command.
+   * @param client The client who drew the segments.
+   */
+  private void handleCmdDraw(String command, ConnectionToClient client)
+  {
+    ChatSession session = getSession(client);
+
+    // Recorded before it is relayed, so a client joining the channel
+    // meanwhile gets the segments in its snapshot if it misses them
+    getWhiteboard(session.getChannel()).record(command);
+    sendChannelDrawing(command, session.getChannel(), session.getLoginID());
+  }
+
+  /**
+   * This method handles the #clear command, which erases the pad of
+   * the client's channel.
+   *
+   * @param command The #clear command.
+   * @param client The client who cleared the pad.
+   */
+  private void handleCmdClear(String command, ConnectionToClient client)
+  {
+    ChatSession session = getSession(client);
+    Whiteboard whiteboard = whiteboards.get(session.getChannel());
+
+    if (whiteboard != null)
+      whiteboard.clear();
+    sendChannelDrawing("#clear", session.getChannel(), session.getLoginID());
+  }
+
+  /**
+   * Relays a drawing command to the members of a channel, the client
+   * who drew it included, since its pad only draws what comes back.
+   * Clients blocking the drawer do not get it.  Drawings are not
+   * forwarded: they only make sense on the pad of the channel they
+   * were drawn on.
+   *
+   * @param command The drawing command.
+   * @param channel The channel it was drawn on.
+   * @param login The loginID of the client who drew it.
+   */
+  private void sendChannelDrawing
+    (String command, String channel, String login)
+  {
+    LoginSet blockers = blocks.getBlockers(login);
+
+    for (ConnectionToClient c : channels.getMembers(channel))
+    {
+      if (!blockers.contains(getSession(c).getLoginID()))
+        enqueue(c, command);
+    }
+  }
+
+  /**
+   * Returns a #snapshot command holding the pad of a channel, or null
+   * if nothing is drawn on it.
+   *
+   * @param channel The name of the channel.
+   */
+  private String getSnapshot(String channel)
+  {
+    Whiteboard whiteboard = whiteboards.get(channel);
+
+    return (whiteboard == null) ? null : whiteboard.getSnapshot();
+  }
+
+  /**
+   * Returns the snapshot of a channel's pad as a message that is built
+   * by the writer thread when its turn comes, rather than by the
+   * caller.  It then holds every segment recorded before it is
+   * written; those recorded afterwards are relayed after it, so the
+   * client misses none of them.  Nothing is written if the pad is
+   * blank by then.
+   *
+   * @param channel The name of the channel.
+   */
+  private Supplier<String> deferSnapshot(String channel)
+  {
+    return () -> getSnapshot(channel);
+  }
+
+  /**
+   * Returns the pad of a channel, creating it if nothing has been
+   * drawn on the channel yet.
+   *
+   * @param channel The name of the channel.
+   */
+  private Whiteboard getWhiteboard(String channel)
+  {
+    return whiteboards.computeIfAbsent
+      (channel, name -> new Whiteboard());
+  }
+
+  /**
+   * Drops the pad of a channel that has no member left.  A client
+   * joining the channel meanwhile keeps the pad alive.
+   *
+   * @param channel The name of the channel.
+   */
+  private void dropWhiteboard(String channel)
+  {
+    whiteboards.computeIfPresent(channel, (name, whiteboard) ->
+      channels.getMembers(name).isEmpty() ? null : whiteboard);
+  }
+
+  /**
+   * This method creates the client list.  Added phase 5.
+   *
+   * @param client The connection to the client who has just logged on.
+   */
+  private void makeClientList(ConnectionToClient client)
+  {
+    // The whole list is sent as one frame rather than one #add per
+    // client.  It is queued, so it cannot overtake a frame of changes
+    // queued before it.
+    roster.sendSnapshot(frame -> enqueue(client, frame));
+
+    // The pad of the newcomer's channel is sent as one command
+    // rather than replaying every segment drawn on it.
+    enqueue(client, deferSnapshot(getSession(client).getChannel()));
+
+    String entry = getSession(client).getLoginID() + " - " 
+        + getSession(client).getChannel();
+    notifyObservers("#add " + entry);
+    roster.add(entry);
+  }
   
   /**
    * Notifies others that client the specified client has disconnected.
@@ -2200,43 +2497,57 @@ public class EchoServer extends Observable implements Observer
    */
   private void handleDisconnect(ConnectionToClient client)
   {
-    if (!client.getInfo("loginID").equals(""))
-    {
-      //Added phase 5
-      // This will remove the client from the list of clients
-      sendToAllClients("#remove " +
-          client.getInfo("loginID") + " - " 
-          + client.getInfo("channel"));
-      notifyObservers("#remove " +
-        client.getInfo("loginID") + " - " 
-        + client.getInfo("channel"));
+    ChatSession session = getSession(client);
 
-      try
-      {
-        Thread[] clients = server.getClientConnections();
+    if (session == null)
+      return;
+
+    // A client whose account is still being written is cleaned up
+    // once it is logged in, when this is seen
+    session.setDisconnected();
+
+    // Only a client that completed a login has anything to clean up.
+    // Removing its index entry also makes sure this is done once, even
+    // if the disconnection is reported more than once.
+    if (!clientsByLogin.remove(session.getLoginID(), client))
+      return;
+
+    String loginID = session.getLoginID();
+
+    metrics.countDisconnect();
+    OutboundQueue queue = outboundQueues.remove(client);
+    if (queue != null)
+      queue.close();
+
+    channels.leave(session.getChannel(), client);
+    dropWhiteboard(session.getChannel());
+
+    // The client's blocks only last as long as its session.
+    blocks.unblockAll(loginID);
 
-        // Remove any forwarding to this client by others.
-        for (int i = 0; i < clients.length; i++)
+    //Added phase 5
+    // This will remove the client from the list of clients
+    roster.remove(loginID + " - " + session.getChannel());
+    notifyObservers("#remove " + loginID + " - " + session.getChannel());
+
+    try
+    {
+      // Remove any forwarding to this client by others.
+      for (String forwarder : forwarding.removeClient(loginID))
+      {
+        ConnectionToClient c = getClient(forwarder);
+        if (c != null)
         {
-          ConnectionToClient c = (ConnectionToClient)(clients[i]);
-          if (client.getInfo("loginID")
-                 .equals(c.getInfo("fwdClient")))
-          {
-            c.setInfo("fwdClient", "");
-            c.sendToClient("Forwarding to " 
-                + client.getInfo("loginID")+ " has been cancelled.");
-          }
+          sendTo(c, "Forwarding to " + loginID + " has been cancelled.");
         }
-        sendToAllClients(((client.getInfo("loginID") == null) ? 
-            "" : client.getInfo("loginID")) + " has disconnected.");
       }
-      catch(IOException e) 
-      {
-        notifyObservers("Warning: Error sending message.");
-      }
-      notifyObservers
-          (client.getInfo("loginID") + " has disconnected.");
+      sendToAllClients(loginID + " has disconnected.");
+    }
+    catch(IOException e) 
+    {
+      notifyObservers("Warning: Error sending message.");
     }
+    notifyObservers(loginID + " has disconnected.");
   }
 }
 //End of EchoServer class
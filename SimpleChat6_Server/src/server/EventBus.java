@@ -0,0 +1,172 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * This class passes the events of the server to its user interface
+ * without making the thread that produced an event wait for the
+ * interface.  Any thread may post an event; posting only adds it to a
+ * lock-free queue.  The events are delivered in the order they were
+ * posted, by one task at a time run by the dispatcher, which for a
+ * graphical interface is its event thread.
+ *
+ * A task delivers every event queued when it runs, up to a limit, so a
+ * burst of events costs the dispatcher one task rather than one per
+ * event.  The limit keeps a long burst from holding the dispatcher, so
+ * a graphical interface still gets to repaint in between.
+ *
+ * The queue is bounded for the lines of text shown in the server's
+ * log: once MAX_PENDING events are waiting, further lines are counted
+ * instead of queued, and the count is delivered as a single line once
+ * the queue has been worked off.  Commands such as #add and #remove,
+ * which start with '#', are always queued, since the interface needs
+ * every one of them to keep its lists right.
+ */
+public class EventBus
+{
+  //Class variables *************************************************
+
+  /**
+   * The largest number of events delivered by one task.
+   */
+  static final int MAX_BATCH = 512;
+
+  /**
+   * The number of events waiting above which lines of text are
+   * dropped.
+   */
+  static final int MAX_PENDING = 10000;
+
+  //Instance variables **********************************************
+
+  /**
+   * The events waiting to be delivered.
+   */
+  private final Queue<Object> events = new ConcurrentLinkedQueue<Object>();
+
+  /**
+   * The number of events waiting to be delivered.
+   */
+  private final AtomicInteger pending = new AtomicInteger();
+
+  /**
+   * The number of lines of text dropped since the last report.
+   */
+  private final AtomicInteger dropped = new AtomicInteger();
+
+  /**
+   * Indicates a task has been given to the dispatcher and has not yet
+   * finished delivering.
+   */
+  private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+  /**
+   * What is done with each event.
+   */
+  private final Consumer<Object> receiver;
+
+  /**
+   * Runs the tasks that deliver the events.
+   */
+  private volatile Executor dispatcher;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs an event bus that delivers on a thread of its own until
+   * another dispatcher is set.
+   *
+   * @param receiver What is done with each event.
+   */
+  public EventBus(Consumer<Object> receiver)
+  {
+    this.receiver = receiver;
+    this.dispatcher = Executors.newSingleThreadExecutor(runnable ->
+    {
+      Thread thread = new Thread(runnable, "event-dispatcher");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Sets what runs the tasks that deliver the events.  Events already
+   * handed to the old dispatcher are still delivered by it.
+   *
+   * @param dispatcher The dispatcher, for instance
+   *        EventQueue::invokeLater for an AWT interface.
+   */
+  public void setDispatcher(Executor dispatcher)
+  {
+    this.dispatcher = dispatcher;
+  }
+
+  /**
+   * Queues an event to be delivered.  Never blocks.  A line of text is
+   * dropped if too many events are already waiting.
+   *
+   * @param event The event.
+   */
+  public void post(Object event)
+  {
+    if (pending.get() >= MAX_PENDING && (event instanceof String)
+       && !((String)event).startsWith("#"))
+    {
+      dropped.incrementAndGet();
+    }
+    else
+    {
+      pending.incrementAndGet();
+      events.add(event);
+    }
+    schedule();
+  }
+
+  /**
+   * Gives a delivery task to the dispatcher unless one is already
+   * pending.
+   */
+  private void schedule()
+  {
+    if (scheduled.compareAndSet(false, true))
+      dispatcher.execute(this::deliver);
+  }
+
+  /**
+   * Delivers the events queued so far, up to the batch limit, then the
+   * number of lines dropped if the queue is empty.  An event posted
+   * after the last one was taken is picked up by the check made once
+   * the task is no longer marked as scheduled.
+   */
+  private void deliver()
+  {
+    try
+    {
+      Object event;
+
+      for (int i = 0; i < MAX_BATCH && (event = events.poll()) != null; i++)
+      {
+        pending.decrementAndGet();
+        receiver.accept(event);
+      }
+
+      if (events.isEmpty() && dropped.get() > 0)
+      {
+        receiver.accept("Warning: server messages not shown: "
+          + dropped.getAndSet(0));
+      }
+    }
+    finally
+    {
+      scheduled.set(false);
+      if (!events.isEmpty() || dropped.get() > 0)
+        schedule();
+    }
+  }
+}
+//End of EventBus class
@@ -0,0 +1,199 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class records which clients forward their messages to which
+ * others.  A forwarding that would close a loop is refused when it is
+ * added, so the graph never holds a cycle.
+ *
+ * The route a message takes from a client is worked out once and
+ * kept, so that delivering to a client who forwards does not have to
+ * follow the forwarding and check the blocks again.  The routes are
+ * discarded whenever forwarding or blocks between clients change.
+ */
+public class ForwardingGraph
+{
+  //Instance variables **********************************************
+
+  /**
+   * The blocks consulted when working out routes.
+   */
+  private final BlockGraph blocks;
+
+  /**
+   * The client every client forwards to, indexed by loginID.
+   */
+  private final ConcurrentMap<String, String> forwards =
+    new ConcurrentHashMap<String, String>();
+
+  /**
+   * The routes worked out so far, indexed by the loginID they start
+   * from.
+   */
+  private final ConcurrentMap<String, ForwardingRoute> routes =
+    new ConcurrentHashMap<String, ForwardingRoute>();
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs an empty forwarding graph.
+   *
+   * @param blocks The blocks that can cut a route short.
+   */
+  public ForwardingGraph(BlockGraph blocks)
+  {
+    this.blocks = blocks;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Makes a client forward its messages to another, replacing any
+   * forwarding it had.
+   *
+   * @param from The loginID of the client forwarding.
+   * @param to The loginID of the client forwarded to.
+   * @return false if the forwarding would result in a loop, in which
+   *         case nothing is changed.
+   */
+  public synchronized boolean setForward(String from, String to)
+  {
+    for (String hop = to; hop != null; hop = forwards.get(hop))
+    {
+      if (hop.equals(from))
+        return false;
+    }
+
+    forwards.put(from, to);
+    routes.clear();
+    return true;
+  }
+
+  /**
+   * Stops a client from forwarding its messages.
+   *
+   * @param from The loginID of the client.
+   * @return The loginID it was forwarding to, or null if it was not.
+   */
+  public synchronized String removeForward(String from)
+  {
+    String to = forwards.remove(from);
+
+    if (to != null)
+      routes.clear();
+    return to;
+  }
+
+  /**
+   * Removes a client from the graph: its own forwarding and the
+   * forwarding of every client to it.
+   *
+   * @param loginID The loginID of the client.
+   * @return The loginIDs of the clients that were forwarding to it.
+   */
+  public synchronized List<String> removeClient(String loginID)
+  {
+    List<String> cancelled = new ArrayList<String>();
+
+    forwards.remove(loginID);
+
+    Iterator<Map.Entry<String, String>> it =
+      forwards.entrySet().iterator();
+    while (it.hasNext())
+    {
+      Map.Entry<String, String> entry = it.next();
+      if (entry.getValue().equals(loginID))
+      {
+        cancelled.add(entry.getKey());
+        it.remove();
+      }
+    }
+    routes.clear();
+    return cancelled;
+  }
+
+  /**
+   * Returns the loginID a client forwards to.
+   *
+   * @param from The loginID of the client.
+   * @return The loginID, or null if the client does not forward.
+   */
+  public String getForward(String from)
+  {
+    return (from == null) ? null : forwards.get(from);
+  }
+
+  /**
+   * Verifies if a client forwards its messages.
+   *
+   * @param from The loginID of the client.
+   */
+  public boolean isForwarding(String from)
+  {
+    return getForward(from) != null;
+  }
+
+  /**
+   * Discards the routes worked out so far.  Must be called after the
+   * blocks of a client change.
+   */
+  public synchronized void invalidate()
+  {
+    routes.clear();
+  }
+
+  /**
+   * Returns the route of a message sent to a client.
+   *
+   * @param from The loginID of the client the message is sent to.
+   */
+  public ForwardingRoute getRoute(String from)
+  {
+    ForwardingRoute route = routes.get(from);
+
+    if (route != null)
+      return route;
+
+    // Routes are worked out with the graph locked, so a route built
+    // from blocks or forwarding that have since changed is discarded
+    // by the change's own call to invalidate.
+    synchronized (this)
+    {
+      route = routes.get(from);
+      if (route == null)
+      {
+        route = buildRoute(from);
+        routes.put(from, route);
+      }
+      return route;
+    }
+  }
+
+  /**
+   * Follows the forwarding from a client until a client that does not
+   * forward, or one that is blocking a client already on the path.
+   * Must be called with the graph locked.
+   *
+   * @param from The loginID of the client the message is sent to.
+   */
+  private ForwardingRoute buildRoute(String from)
+  {
+    List<String> path = new ArrayList<String>();
+    path.add(from);
+
+    for (String next = forwards.get(from); next != null;
+         next = forwards.get(next))
+    {
+      for (String pastRecipient : path)
+      {
+        if (blocks.isBlocking(next, pastRecipient))
+          return new ForwardingRoute(path.toArray(new String[0]), next);
+      }
+      path.add(next);
+    }
+    return new ForwardingRoute(path.toArray(new String[0]), null);
+  }
+}
+//End of ForwardingGraph class
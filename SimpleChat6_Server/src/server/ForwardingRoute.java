@@ -0,0 +1,82 @@
+package server;
+
+/**
+ * This class holds the path a forwarded message takes, starting at
+ * the client it was sent to and following each client's forwarding in
+ * turn.  The path stops at the first client that does not forward, or
+ * just before a client that is blocking messages from one of the
+ * clients already on the path.
+ *
+ * A route only depends on the forwarding and blocks between clients,
+ * so it can be kept until one of them changes.  Blocks of the sender
+ * of a message are checked against the route when it is used.
+ */
+public class ForwardingRoute
+{
+  //Instance variables **********************************************
+
+  /**
+   * The loginIDs of the clients on the path, in order.
+   */
+  private final String[] recipients;
+
+  /**
+   * The loginID of the client the path was cut before, or null if the
+   * path ends at a client that does not forward.
+   */
+  private final String cutBy;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs a route.
+   *
+   * @param recipients The loginIDs of the clients on the path.
+   * @param cutBy The client the path was cut before, or null.
+   */
+  public ForwardingRoute(String[] recipients, String cutBy)
+  {
+    this.recipients = recipients;
+    this.cutBy = cutBy;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Returns the number of clients on the path.
+   */
+  public int getLength()
+  {
+    return recipients.length;
+  }
+
+  /**
+   * Returns the loginID of a client on the path.
+   *
+   * @param hop The position of the client, 0 being the client the
+   *        message was sent to.
+   */
+  public String getRecipient(int hop)
+  {
+    return recipients[hop];
+  }
+
+  /**
+   * Returns the loginID of the last client on the path.
+   */
+  public String getDestination()
+  {
+    return recipients[recipients.length - 1];
+  }
+
+  /**
+   * Returns the loginID of the client that would have been next on the
+   * path but is blocking messages from a client already on it, or
+   * null if there is none.
+   */
+  public String getCutBy()
+  {
+    return cutBy;
+  }
+}
+//End of ForwardingRoute class
@@ -0,0 +1,169 @@
+package server;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class records how long something took, many times over, and
+ * answers questions such as the median or the 99th percentile of those
+ * times.  Any number of threads may record at once; recording takes no
+ * lock and creates no object.
+ *
+ * The times are counted in buckets whose width grows with the time, in
+ * the manner of an HDR histogram: each power of two is split into 16
+ * buckets of equal width, so a time is known to within about 6% of its
+ * value whether it is a few microseconds or several seconds.  Times
+ * under 16 nanoseconds have a bucket each.
+ *
+ * Reading the histogram takes no lock either.  A reading made while
+ * times are being recorded may include some of them and not others.
+ */
+public class LatencyHistogram
+{
+  //Class variables *************************************************
+
+  /**
+   * The number of bits of a time kept below its highest one bit, and
+   * the number of buckets each power of two is split into.
+   */
+  static final int SUB_BUCKET_BITS = 4;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * The number of buckets, enough for any positive long.
+   */
+  static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  //Instance variables **********************************************
+
+  /**
+   * The number of times recorded in each bucket.
+   */
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  /**
+   * The number of times recorded, their sum and the longest of them,
+   * in nanoseconds.
+   */
+  private final LongAdder count = new LongAdder();
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  //Instance methods ************************************************
+
+  /**
+   * Records a time.
+   *
+   * @param nanos The time in nanoseconds.  A negative time, which the
+   *        clock should never give, is recorded as 0.
+   */
+  public void record(long nanos)
+  {
+    if (nanos < 0)
+      nanos = 0;
+
+    counts.incrementAndGet(indexFor(nanos));
+    count.increment();
+    total.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  /**
+   * Returns the number of times recorded.
+   */
+  public long getCount()
+  {
+    return count.sum();
+  }
+
+  /**
+   * Returns the mean of the times recorded in nanoseconds, or 0 if
+   * none was.
+   */
+  public long getMean()
+  {
+    long n = count.sum();
+    return (n == 0) ? 0 : total.sum() / n;
+  }
+
+  /**
+   * Returns the longest time recorded in nanoseconds.
+   */
+  public long getMax()
+  {
+    return max.get();
+  }
+
+  /**
+   * Returns the time under which a given share of the recorded times
+   * fall, such as 50 for the median.  The answer is the upper end of
+   * the bucket the percentile falls in, so it is never below the true
+   * value.
+   *
+   * @param percentile The share, from 0 to 100.
+   * @return The time in nanoseconds, or 0 if no time was recorded.
+   */
+  public long getPercentile(double percentile)
+  {
+    long[] snapshot = new long[BUCKETS];
+    long recorded = 0;
+
+    // The buckets are read once, so the counts below add up even if
+    // times are recorded meanwhile
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      snapshot[i] = counts.get(i);
+      recorded += snapshot[i];
+    }
+    if (recorded == 0)
+      return 0;
+
+    long rank = Math.max(1,
+      (long)Math.ceil(recorded * Math.min(percentile, 100.0) / 100.0));
+    long seen = 0;
+
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      seen += snapshot[i];
+      if (seen >= rank)
+        return Math.min(upperBound(i), getMax());
+    }
+    return getMax();
+  }
+
+  /**
+   * Finds the bucket of a time.  Small times have a bucket each; above
+   * that, the position of the highest one bit picks the power of two
+   * and the bits below it pick one of its buckets.
+   *
+   * @param nanos The time, not negative.
+   */
+  static int indexFor(long nanos)
+  {
+    if (nanos < SUB_BUCKETS)
+      return (int)nanos;
+
+    int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    int shift = exponent - SUB_BUCKET_BITS;
+
+    return ((shift + 1) << SUB_BUCKET_BITS)
+      | (int)((nanos >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /**
+   * Returns the longest time that falls in a bucket.
+   *
+   * @param index The bucket.
+   */
+  static long upperBound(int index)
+  {
+    if (index < SUB_BUCKETS)
+      return index;
+
+    int shift = (index >>> SUB_BUCKET_BITS) - 1;
+    long lowest = (long)(SUB_BUCKETS | (index & (SUB_BUCKETS - 1)))
+      << shift;
+
+    return lowest + (1L << shift) - 1;
+  }
+}
+//End of LatencyHistogram class
@@ -0,0 +1,205 @@
+package server;
+
+import java.util.*;
+
+/**
+ * This class is a set of loginIDs that is cheap to look up and safe to
+ * read from any thread without locking.  A set is never modified once
+ * built: adding or removing a loginID builds a new set, which is then
+ * published in place of the old one.  It is meant for sets that are
+ * read on every message and changed rarely, such as block lists.
+ *
+ * The loginIDs are kept in a single array using open addressing with
+ * linear probing, and the array is never more than half full.  The
+ * loginIDs are interned when they are added, so a lookup with an
+ * interned loginID usually succeeds on a reference comparison.
+ */
+public final class LoginSet extends AbstractSet<String>
+{
+  //Class variables *************************************************
+
+  /**
+   * The empty set.
+   */
+  public static final LoginSet EMPTY = new LoginSet(new String[1], 0);
+
+  //Instance variables **********************************************
+
+  /**
+   * The slots of the table.  Its length is a power of two and empty
+   * slots are null.
+   */
+  private final String[] slots;
+
+  /**
+   * The number of loginIDs in the set.
+   */
+  private final int size;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs a set from a filled table.
+   *
+   * @param slots The slots of the table.
+   * @param size The number of loginIDs in the table.
+   */
+  private LoginSet(String[] slots, int size)
+  {
+    this.slots = slots;
+    this.size = size;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Verifies if a loginID is in the set.
+   *
+   * @param o The loginID.
+   */
+  public boolean contains(Object o)
+  {
+    if (size == 0 || !(o instanceof String))
+      return false;
+
+    String loginID = (String)o;
+    int mask = slots.length - 1;
+
+    for (int i = indexFor(loginID, mask); ; i = (i + 1) & mask)
+    {
+      String slot = slots[i];
+
+      if (slot == null)
+        return false;
+      if (slot == loginID || slot.equals(loginID))
+        return true;
+    }
+  }
+
+  /**
+   * Returns the number of loginIDs in the set.
+   */
+  public int size()
+  {
+    return size;
+  }
+
+  /**
+   * Returns an iterator over the loginIDs, in no particular order.
+   * The iterator does not support removal.
+   */
+  public Iterator<String> iterator()
+  {
+    return new Iterator<String>()
+    {
+      private int next = advance(0);
+
+      public boolean hasNext()
+      {
+        return next < slots.length;
+      }
+
+      public String next()
+      {
+        if (next >= slots.length)
+          throw new NoSuchElementException();
+
+        String loginID = slots[next];
+        next = advance(next + 1);
+        return loginID;
+      }
+
+      private int advance(int from)
+      {
+        while (from < slots.length && slots[from] == null)
+          from++;
+        return from;
+      }
+    };
+  }
+
+  /**
+   * Returns a set holding the loginIDs of this one and another.
+   *
+   * @param loginID The loginID to add.
+   * @return This set if it already holds the loginID.
+   */
+  public LoginSet with(String loginID)
+  {
+    if (contains(loginID))
+      return this;
+
+    String[] table = new String[capacityFor(size + 1)];
+    for (String s : slots)
+    {
+      if (s != null)
+        insert(table, s);
+    }
+    insert(table, loginID.intern());
+    return new LoginSet(table, size + 1);
+  }
+
+  /**
+   * Returns a set holding the loginIDs of this one except one.
+   *
+   * @param loginID The loginID to remove.
+   * @return This set if it does not hold the loginID.
+   */
+  public LoginSet without(String loginID)
+  {
+    if (!contains(loginID))
+      return this;
+    if (size == 1)
+      return EMPTY;
+
+    String[] table = new String[capacityFor(size - 1)];
+    for (String s : slots)
+    {
+      if (s != null && !s.equals(loginID))
+        insert(table, s);
+    }
+    return new LoginSet(table, size - 1);
+  }
+
+  /**
+   * Puts a loginID in the first free slot of its probe sequence.
+   *
+   * @param table The table to put it in.
+   * @param loginID The loginID.
+   */
+  private static void insert(String[] table, String loginID)
+  {
+    int mask = table.length - 1;
+    int i = indexFor(loginID, mask);
+
+    while (table[i] != null)
+      i = (i + 1) & mask;
+    table[i] = loginID;
+  }
+
+  /**
+   * Finds the slot where the probe sequence of a loginID starts.  The
+   * high bits of the hash are mixed in, since only the low bits are
+   * used.
+   *
+   * @param loginID The loginID.
+   * @param mask The length of the table, less one.
+   */
+  private static int indexFor(String loginID, int mask)
+  {
+    int h = loginID.hashCode();
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  /**
+   * Returns the length of a table for the given number of loginIDs:
+   * the smallest power of two that leaves at least half of it empty.
+   *
+   * @param count The number of loginIDs.
+   */
+  private static int capacityFor(int count)
+  {
+    return Integer.highestOneBit(Math.max(1, count * 2 - 1)) << 1;
+  }
+}
+//End of LoginSet class
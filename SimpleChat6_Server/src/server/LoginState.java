@@ -0,0 +1,42 @@
+package server;
+
+/**
+ * The steps a client goes through before it is logged in.  The
+ * message a client sends is interpreted according to the step it is
+ * at.
+ */
+public enum LoginState
+{
+  /**
+   * The client must send its loginID, or "guest" to create an account.
+   */
+  AWAITING_LOGIN,
+
+  /**
+   * The client has sent its loginID and must send its password.
+   */
+  AWAITING_PASSWORD,
+
+  /**
+   * The client is creating an account and must send the new loginID.
+   */
+  CREATING_LOGIN,
+
+  /**
+   * The client is creating an account and must send the new password.
+   */
+  CREATING_PASSWORD,
+
+  /**
+   * The client has sent the password of its new account, which is
+   * being written to the password file.  Its messages are ignored
+   * until it is logged in.
+   */
+  SAVING_ACCOUNT,
+
+  /**
+   * The client is logged in and its messages are chat messages or
+   * commands.
+   */
+  LOGGED_IN
+}
@@ -0,0 +1,226 @@
+package server;
+
+import java.util.*;
+
+/**
+ * This class writes the server's metrics out as text for the console
+ * commands #stats, #stats &lt;verb&gt; and #top.  It only reads
+ * counters, histograms and queue depths that can be read without a
+ * lock, so asking for a report never holds up a message.
+ *
+ * The report of #stats gives rates both since the server started and
+ * since the previous #stats, so that asking for it twice shows the
+ * current throughput.
+ */
+public class MetricsReport
+{
+  //Class variables *************************************************
+
+  /**
+   * The largest number of clients listed by #top.
+   */
+  static final int TOP_CLIENTS = 10;
+
+  /**
+   * The percentiles shown in the report of a single command.
+   */
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+  //Instance variables **********************************************
+
+  /**
+   * The metrics reported on.
+   */
+  private final ServerMetrics metrics;
+
+  /**
+   * The time of the previous #stats report and the message counts at
+   * that time.  Only the console uses them.
+   */
+  private long lastTime;
+  private long lastIn;
+  private long lastOut;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs a report on the given metrics.
+   *
+   * @param metrics The metrics.
+   */
+  public MetricsReport(ServerMetrics metrics)
+  {
+    this.metrics = metrics;
+    this.lastTime = metrics.getStartTime();
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Writes the general report: throughput, failures, sessions by
+   * channel, and the latency of every command that has been used.
+   *
+   * @param sessions The number of logged in clients.
+   * @param channels The number of clients on every channel.
+   */
+  public synchronized String getSummary
+    (int sessions, SortedMap<String, Integer> channels)
+  {
+    long now = System.currentTimeMillis();
+    long in = metrics.getMessagesIn();
+    long out = metrics.getMessagesOut();
+    StringBuilder report = new StringBuilder();
+
+    report.append("Server statistics, up ")
+      .append(formatDuration(now - metrics.getStartTime())).append(':');
+    report.append("\nMessages in: ").append(in).append(" (")
+      .append(formatRate(in, now - metrics.getStartTime()))
+      .append(", ").append(formatRate(in - lastIn, now - lastTime))
+      .append(" since last #stats)");
+    report.append("\nMessages out: ").append(out).append(" (")
+      .append(formatRate(out, now - metrics.getStartTime()))
+      .append(", ").append(formatRate(out - lastOut, now - lastTime))
+      .append(" since last #stats)");
+    report.append("\nCharacters in: ").append(metrics.getCharactersIn())
+      .append(", out: ").append(metrics.getCharactersOut());
+    report.append("\nSend failures: ").append(metrics.getSendFailures());
+    report.append("\nLogins: ").append(metrics.getLogins())
+      .append(", disconnects: ").append(metrics.getDisconnects());
+
+    report.append("\nSessions: ").append(sessions);
+    for (Map.Entry<String, Integer> channel : channels.entrySet())
+    {
+      report.append("\n  ").append(channel.getKey()).append(": ")
+        .append(channel.getValue());
+    }
+
+    report.append(String.format("\n%-12s %8s %10s %10s %10s",
+      "Command", "Count", "p50", "p99", "Max"));
+    for (Map.Entry<String, LatencyHistogram> entry
+           : metrics.getHistograms().entrySet())
+    {
+      LatencyHistogram histogram = entry.getValue();
+
+      if (histogram.getCount() > 0)
+      {
+        report.append(String.format("\n%-12s %8d %10s %10s %10s",
+          entry.getKey(), histogram.getCount(),
+          formatTime(histogram.getPercentile(50)),
+          formatTime(histogram.getPercentile(99)),
+          formatTime(histogram.getMax())));
+      }
+    }
+
+    lastTime = now;
+    lastIn = in;
+    lastOut = out;
+    return report.toString();
+  }
+
+  /**
+   * Writes the report of one command.  The '#' of the verb may be left
+   * out.
+   *
+   * @param verb The verb of the command, or "message" or "login".
+   */
+  public String getCommand(String verb)
+  {
+    LatencyHistogram histogram = metrics.getHistogram(verb);
+
+    if (histogram == null && !verb.startsWith("#"))
+    {
+      verb = "#" + verb;
+      histogram = metrics.getHistogram(verb);
+    }
+    if (histogram == null)
+      return "No statistics for " + verb + ".";
+
+    StringBuilder report = new StringBuilder(verb);
+    report.append(": ").append(histogram.getCount()).append(" calls, mean ")
+      .append(formatTime(histogram.getMean()));
+    for (double percentile : PERCENTILES)
+    {
+      report.append(", p").append(percentile == (int)percentile
+          ? String.valueOf((int)percentile) : String.valueOf(percentile))
+        .append(' ')
+        .append(formatTime(histogram.getPercentile(percentile)));
+    }
+    report.append(", max ").append(formatTime(histogram.getMax()));
+    return report.toString();
+  }
+
+  /**
+   * Writes the list of the clients with the most messages waiting to
+   * be sent to them.
+   *
+   * @param queues The outbound queue of every client, indexed by
+   *        loginID.
+   */
+  public String getTop(Map<String, OutboundQueue> queues)
+  {
+    if (queues.isEmpty())
+      return "No clients are logged in.";
+
+    List<Map.Entry<String, OutboundQueue>> clients =
+      new ArrayList<Map.Entry<String, OutboundQueue>>(queues.entrySet());
+
+    // The depths are read once, since they change while sorting
+    Map<String, Integer> depths = new HashMap<String, Integer>();
+    for (Map.Entry<String, OutboundQueue> client : clients)
+      depths.put(client.getKey(), client.getValue().getDepth());
+    clients.sort((a, b) ->
+      depths.get(b.getKey()).compareTo(depths.get(a.getKey())));
+
+    StringBuilder report = new StringBuilder(
+      "Clients with the largest outbound backlog:");
+    report.append(String.format("\n%-16s %8s %8s",
+      "Client", "Backlog", "Highest"));
+    for (int i = 0; i < Math.min(TOP_CLIENTS, clients.size()); i++)
+    {
+      Map.Entry<String, OutboundQueue> client = clients.get(i);
+      report.append(String.format("\n%-16s %8d %8d", client.getKey(),
+        depths.get(client.getKey()), client.getValue().getHighWaterMark()));
+    }
+    return report.toString();
+  }
+
+  /**
+   * Writes a time in the most readable unit.
+   *
+   * @param nanos The time in nanoseconds.
+   */
+  static String formatTime(long nanos)
+  {
+    if (nanos < 1000)
+      return nanos + " ns";
+    if (nanos < 1000000)
+      return String.format("%.1f us", nanos / 1e3);
+    if (nanos < 1000000000)
+      return String.format("%.1f ms", nanos / 1e6);
+    return String.format("%.2f s", nanos / 1e9);
+  }
+
+  /**
+   * Writes a number of events over a period as a rate per second.
+   *
+   * @param events The number of events.
+   * @param millis The period in milliseconds.
+   */
+  static String formatRate(long events, long millis)
+  {
+    return String.format("%.1f/s", events * 1000.0 / Math.max(1, millis));
+  }
+
+  /**
+   * Writes a period in hours, minutes and seconds.
+   *
+   * @param millis The period in milliseconds.
+   */
+  static String formatDuration(long millis)
+  {
+    long seconds = millis / 1000;
+    return String.format("%dh %02dm %02ds",
+      seconds / 3600, seconds / 60 % 60, seconds % 60);
+  }
+}
+//End of MetricsReport class
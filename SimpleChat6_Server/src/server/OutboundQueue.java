@@ -0,0 +1,504 @@
+package server;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import ocsf.server.*;
+
+/**
+ * This class holds the messages waiting to be sent to one client.
+ * Senders only add to the queue and return; the messages are written
+ * to the client by a writer thread, one client at a time, so a client
+ * that does not read its messages only holds up its own queue.  The
+ * queue tells how long its current write has been going on, so that
+ * the server can expel a client whose write never finishes before it
+ * ties up every writer thread.
+ *
+ * The queue is bounded.  What happens to a message that arrives when
+ * it is full is decided by its overflow policy.
+ */
+public class OutboundQueue
+{
+  //Class variables *************************************************
+
+  /**
+   * The largest number of messages a writer sends from one queue
+   * before it lets the other queues have a turn.
+   */
+  static final int MAX_BATCH = 64;
+
+  //Instance variables **********************************************
+
+  /**
+   * The client the messages are sent to.
+   */
+  private final ConnectionToClient client;
+
+  /**
+   * The server that sends the messages and handles failures.
+   */
+  private final EchoServer server;
+
+  /**
+   * The threads the queue is drained by.
+   */
+  private final Executor writers;
+
+  /**
+   * The largest number of messages the queue may hold.
+   */
+  private final int capacity;
+
+  /**
+   * What to do when a message arrives while the queue is full.
+   */
+  private final OverflowPolicy policy;
+
+  /**
+   * The messages waiting to be sent.  Guarded by itself.
+   */
+  private final ArrayDeque<Object> messages = new ArrayDeque<Object>();
+
+  /**
+   * The roster frame waiting in the queue, or null if there is none.
+   * With the roster policy a frame is queued in a holder, which later
+   * frames are merged into where it stands.  Guarded by messages.
+   */
+  private Frame frame = null;
+
+  /**
+   * Indicates a writer is draining the queue.  Guarded by messages.
+   */
+  private boolean draining = false;
+
+  /**
+   * Indicates the queue no longer accepts messages.  Guarded by
+   * messages.
+   */
+  private boolean closed = false;
+
+  /**
+   * Indicates the connection is closed once the queue has been
+   * drained.  Guarded by messages.
+   */
+  private boolean hangUp = false;
+
+  /**
+   * Indicates the client was found not to read its messages, and is
+   * being expelled.  Guarded by messages.
+   */
+  private boolean stalled = false;
+
+  /**
+   * The number of messages waiting and the largest number that have
+   * been.  Only written with the queue locked, but volatile so that
+   * they can be read without taking the lock senders use.
+   */
+  private volatile int depth = 0;
+  private volatile int highWaterMark = 0;
+
+  /**
+   * The time the message being written to the client started to be
+   * written, in milliseconds, or 0 if no message is being written.
+   */
+  private volatile long writeStarted = 0;
+
+  /**
+   * Statistics on the queue.  Guarded by messages.
+   */
+  private long sent = 0;
+  private long dropped = 0;
+  private long coalesced = 0;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs the queue of a client.
+   *
+   * @param client The client the messages are sent to.
+   * @param server The server that sends the messages.
+   * @param writers The threads the queue is drained by.
+   * @param capacity The largest number of messages the queue holds.
+   * @param policy What to do with a message when the queue is full.
+   */
+  public OutboundQueue(ConnectionToClient client, EchoServer server,
+    Executor writers, int capacity, OverflowPolicy policy)
+  {
+    this.client = client;
+    this.server = server;
+    this.writers = writers;
+    this.capacity = capacity;
+    this.policy = policy;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Adds a message to the queue and makes sure a writer will send it.
+   *
+   * @param message The message to send.
+   */
+  public void add(Object message)
+  {
+    boolean expel = false;
+    boolean startWriter = false;
+
+    synchronized (messages)
+    {
+      if (closed)
+        return;
+
+      Object entry = message;
+
+      if (policy == OverflowPolicy.COALESCE_ROSTER
+         && RosterStage.isFrame(message))
+      {
+        // A queued frame means a writer is already draining the queue
+        if (frame != null)
+        {
+          frame.text = RosterStage.merge(frame.text, (String)message);
+          coalesced++;
+          return;
+        }
+        entry = new Frame((String)message);
+      }
+
+      if (messages.size() >= capacity)
+      {
+        if (policy == OverflowPolicy.DISCONNECT)
+        {
+          expel = true;
+          closed = true;
+          dropped += messages.size() + 1;
+          messages.clear();
+        }
+        else if (dropOne())
+        {
+          messages.addLast(entry);
+        }
+        else
+        {
+          // Nothing could be dropped in its place
+          dropped++;
+          return;
+        }
+      }
+      else
+      {
+        messages.addLast(entry);
+      }
+
+      if (entry instanceof Frame)
+        frame = (Frame)entry;
+
+      depth = messages.size();
+      if (depth > highWaterMark)
+        highWaterMark = depth;
+
+      if (!expel && !draining)
+      {
+        draining = true;
+        startWriter = true;
+      }
+    }
+
+    if (expel)
+      server.expelSlowClient(client);
+    else if (startWriter)
+      writers.execute(this::drain);
+  }
+
+  /**
+   * Adds a last message to the queue and closes the connection once
+   * it has been written.  Messages added afterwards are ignored.
+   *
+   * @param message The message to send.
+   */
+  public void addAndClose(Object message)
+  {
+    add(message);
+    closeWhenDrained();
+  }
+
+  /**
+   * Closes the connection once the messages already queued have been
+   * written.  Messages added afterwards are ignored.
+   */
+  public void closeWhenDrained()
+  {
+    boolean startWriter = false;
+
+    synchronized (messages)
+    {
+      if (closed)
+        return;
+
+      closed = true;
+      hangUp = true;
+      if (!draining)
+      {
+        draining = true;
+        startWriter = true;
+      }
+    }
+
+    if (startWriter)
+      writers.execute(this::drain);
+  }
+
+  /**
+   * Discards the queued messages.  Messages added afterwards are
+   * ignored.
+   */
+  public void close()
+  {
+    synchronized (messages)
+    {
+      closed = true;
+      messages.clear();
+      frame = null;
+      depth = 0;
+    }
+  }
+
+  /**
+   * Discards the queued messages if the message being written has
+   * taken longer than the given time, as it does when the client has
+   * stopped reading.  Messages added afterwards are ignored.
+   *
+   * @param timeout The longest time a write may take, in milliseconds.
+   * @return true if the client was found stalled for the first time,
+   *         and must be expelled.
+   */
+  public boolean closeIfStalled(long timeout)
+  {
+    synchronized (messages)
+    {
+      if (stalled || getWriteTime() <= timeout)
+        return false;
+
+      stalled = true;
+      closed = true;
+      dropped += messages.size();
+      messages.clear();
+      frame = null;
+      depth = 0;
+      return true;
+    }
+  }
+
+  /**
+   * Waits for the writer to write every message queued so far, or to
+   * give up on them.
+   *
+   * @param millis The longest time to wait, in milliseconds.
+   * @return false if the time ran out first.
+   * @exception InterruptedException If the thread was interrupted.
+   */
+  public boolean awaitDrained(long millis) throws InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + millis;
+
+    synchronized (messages)
+    {
+      while (draining)
+      {
+        long left = deadline - System.currentTimeMillis();
+
+        if (left <= 0)
+          return false;
+        messages.wait(left);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the number of messages waiting to be sent.  Does not lock
+   * the queue.
+   */
+  public int getDepth()
+  {
+    return depth;
+  }
+
+  /**
+   * Returns the largest number of messages that have been waiting.
+   * Does not lock the queue.
+   */
+  public int getHighWaterMark()
+  {
+    return highWaterMark;
+  }
+
+  /**
+   * Returns the time the message being written to the client has
+   * taken so far, in milliseconds, or 0 if no message is being
+   * written.  Does not lock the queue.
+   */
+  public long getWriteTime()
+  {
+    long started = writeStarted;
+
+    return (started == 0) ? 0 : System.currentTimeMillis() - started;
+  }
+
+  /**
+   * Returns the number of messages written to the client.
+   */
+  public long getSent()
+  {
+    synchronized (messages)
+    {
+      return sent;
+    }
+  }
+
+  /**
+   * Returns the number of messages dropped because the queue was full.
+   */
+  public long getDropped()
+  {
+    synchronized (messages)
+    {
+      return dropped;
+    }
+  }
+
+  /**
+   * Returns the number of roster frames merged into a frame queued
+   * before them.
+   */
+  public long getCoalesced()
+  {
+    synchronized (messages)
+    {
+      return coalesced;
+    }
+  }
+
+  /**
+   * Writes the queued messages to the client until the queue is
+   * empty, or until a batch has been written, in which case the rest
+   * of the queue is handed back to the writers.  Runs on a writer
+   * thread.
+   */
+  private void drain()
+  {
+    for (int written = 0; ; written++)
+    {
+      Object message;
+
+      synchronized (messages)
+      {
+        if (written == MAX_BATCH && !messages.isEmpty())
+        {
+          // The queue stays marked as being drained, so no sender
+          // starts a second writer on it meanwhile
+          writers.execute(this::drain);
+          return;
+        }
+
+        message = messages.pollFirst();
+        depth = messages.size();
+        if (message != null && message == frame)
+        {
+          // The frame can no longer be merged into once it is taken
+          message = frame.text;
+          frame = null;
+        }
+        if (message == null)
+        {
+          draining = false;
+          messages.notifyAll();
+          if (!hangUp)
+            return;
+        }
+      }
+
+      if (message == null)
+      {
+        try
+        {
+          client.close();
+        }
+        catch (IOException e) {}
+        return;
+      }
+
+      try
+      {
+        writeStarted = System.currentTimeMillis();
+        server.writeTo(client, message);
+        synchronized (messages)
+        {
+          sent++;
+        }
+      }
+      catch (IOException e)
+      {
+        // The connection is gone; the rest of the queue would fail too
+        synchronized (messages)
+        {
+          dropped += messages.size();
+          messages.clear();
+          frame = null;
+          depth = 0;
+        }
+        server.notifyObservers("WARNING - Cannot send a message to "
+          + "a client.");
+      }
+      finally
+      {
+        writeStarted = 0;
+      }
+    }
+  }
+
+  /**
+   * Drops one message from a full queue.  With the roster policy the
+   * oldest message that is not a roster frame is chosen; the queue
+   * never holds more than one frame, so there is one unless the queue
+   * has room for a single message.  Must be called with the queue
+   * locked.
+   *
+   * @return false if no message could be dropped.
+   */
+  private boolean dropOne()
+  {
+    if (policy == OverflowPolicy.COALESCE_ROSTER)
+    {
+      Iterator<Object> it = messages.iterator();
+      while (it.hasNext())
+      {
+        if (!(it.next() instanceof Frame))
+        {
+          it.remove();
+          dropped++;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    messages.pollFirst();
+    dropped++;
+    return true;
+  }
+
+  //Inner classes ***************************************************
+
+  /**
+   * The holder of the roster frame waiting in a queue.
+   */
+  private static class Frame
+  {
+    String text;
+
+    Frame(String text)
+    {
+      this.text = text;
+    }
+  }
+}
+//End of OutboundQueue class
@@ -0,0 +1,30 @@
+package server;
+
+/**
+ * The ways a client's outbound queue can deal with a message that
+ * arrives when the queue is full.
+ */
+public enum OverflowPolicy
+{
+  /**
+   * The oldest queued message is dropped to make room.
+   */
+  DROP_OLDEST,
+
+  /**
+   * A #roster or #rostersnap frame is merged into the frame already
+   * queued, whether or not the queue is full, so at most one frame
+   * waits.  The merged frame keeps the place of the queued one, so the
+   * client's list of users is brought up to date as early as it would
+   * have been.  When the queue is full the oldest message that is not a
+   * frame is dropped, so that the client's list of users stays
+   * correct.  A queue with room for a single message that holds a
+   * frame drops the new message instead.
+   */
+  COALESCE_ROSTER,
+
+  /**
+   * The client is expelled from the server, as with #punt.
+   */
+  DISCONNECT
+}
@@ -0,0 +1,375 @@
+package server;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class appends new accounts to the password file.  The records
+ * are written and synced by a writer thread, so the thread that
+ * registers an account does not wait for the disk.  An append returns
+ * a future that is completed once the record is on disk.
+ *
+ * The registrations that arrive while the disk is being synced are
+ * written and synced together once it is done, so one fsync covers
+ * every account registered in the meantime.
+ *
+ * When the file is first opened, a last record that does not end
+ * with a line break is the remains of an interrupted write.  It is
+ * cut off before anything is appended so that the new record does
+ * not get joined to it.
+ */
+public class RegistryWriter
+{
+  //Class variables *************************************************
+
+  /**
+   * The size of the buffer records are collected in.
+   */
+  static final int BUFFER_SIZE = 8192;
+
+  //Instance variables **********************************************
+
+  /**
+   * The path of the password file.
+   */
+  private final String passwordFile;
+
+  /**
+   * Runs the writes and syncs.
+   */
+  private final Executor writer;
+
+  /**
+   * The channel the records are written to.  Opened on the first
+   * write, and only used by the writer.
+   */
+  private FileChannel channel;
+
+  /**
+   * The records that have not been written to the channel yet.  Only
+   * used by the writer.
+   */
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+  /**
+   * The records waiting for the writer, with the futures to complete
+   * once they are on disk.  Guarded by itself.
+   */
+  private final List<Record> pending = new ArrayList<Record>();
+
+  /**
+   * Indicates the writer has been given the pending records.  Guarded
+   * by the pending records.
+   */
+  private boolean writing = false;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs a writer for the given password file.  The file is not
+   * opened until the first account is written.
+   *
+   * @param passwordFile The path of the password file.
+   * @param writer Runs the writes and syncs.
+   */
+  public RegistryWriter(String passwordFile, Executor writer)
+  {
+    this.passwordFile = passwordFile;
+    this.writer = writer;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Appends an account to the password file.
+   *
+   * @param loginID The client's loginID
+   * @param password The client's password
+   * @return A future completed once the record is on disk, or
+   *         completed with the IOException that kept it from being
+   *         written.
+   */
+  public CompletableFuture<Void> append(String loginID, String password)
+  {
+    Record record = new Record(toRecord(loginID, password));
+    boolean start;
+
+    synchronized (pending)
+    {
+      pending.add(record);
+      start = !writing;
+      writing = true;
+    }
+
+    if (start)
+    {
+      try
+      {
+        writer.execute(this::writePending);
+      }
+      catch (RejectedExecutionException e)
+      {
+        fail(new IOException("The password file is closed."));
+      }
+    }
+    return record.done;
+  }
+
+  /**
+   * Waits for the pending records to be written and closes the
+   * password file.
+   *
+   * @exception IOException If the file could not be closed.
+   */
+  public void close() throws IOException
+  {
+    synchronized (pending)
+    {
+      while (writing)
+      {
+        try
+        {
+          pending.wait();
+        }
+        catch (InterruptedException e)
+        {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+
+      if (channel != null)
+      {
+        channel.close();
+        channel = null;
+      }
+    }
+  }
+
+  /**
+   * Writes and syncs the pending records until there are none left,
+   * then completes their futures.  Runs on the writer, which is given
+   * the records by one append at a time.
+   */
+  private void writePending()
+  {
+    while (true)
+    {
+      List<Record> batch;
+
+      synchronized (pending)
+      {
+        if (pending.isEmpty())
+        {
+          writing = false;
+          pending.notifyAll();
+          return;
+        }
+        batch = new ArrayList<Record>(pending);
+        pending.clear();
+      }
+
+      try
+      {
+        open();
+        for (Record record : batch)
+        {
+          if (record.bytes.length > buffer.remaining())
+            drain();
+
+          if (record.bytes.length > buffer.remaining())
+            write(ByteBuffer.wrap(record.bytes));
+          else
+            buffer.put(record.bytes);
+        }
+        drain();
+        channel.force(false);
+
+        for (Record record : batch)
+          record.done.complete(null);
+      }
+      catch (IOException e)
+      {
+        // What was buffered is dropped along with the records, and the
+        // file is opened again for the next ones, cutting off a record
+        // left half written
+        buffer.clear();
+        closeQuietly();
+        for (Record record : batch)
+          record.done.completeExceptionally(e);
+      }
+    }
+  }
+
+  /**
+   * Fails the pending records when the writer cannot take them.
+   *
+   * @param failure The exception the records are completed with.
+   */
+  private void fail(IOException failure)
+  {
+    List<Record> batch;
+
+    synchronized (pending)
+    {
+      batch = new ArrayList<Record>(pending);
+      pending.clear();
+      writing = false;
+      pending.notifyAll();
+    }
+
+    for (Record record : batch)
+      record.done.completeExceptionally(failure);
+  }
+
+  /**
+   * Closes the password file after a failed write, ignoring errors.
+   */
+  private void closeQuietly()
+  {
+    if (channel == null)
+      return;
+
+    try
+    {
+      channel.close();
+    }
+    catch (IOException e) {}
+    channel = null;
+  }
+
+  /**
+   * Opens the password file if it is not open yet, cutting off a torn
+   * last record.
+   *
+   * @exception IOException If the file could not be opened.
+   */
+  private void open() throws IOException
+  {
+    if (channel != null)
+      return;
+
+    FileChannel opened = FileChannel.open(Paths.get(passwordFile),
+      StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+    try
+    {
+      long end = endOfLastRecord(opened);
+      if (end < opened.size())
+        opened.truncate(end);
+      opened.position(end);
+    }
+    catch (IOException e)
+    {
+      opened.close();
+      throw e;
+    }
+    channel = opened;
+  }
+
+  /**
+   * Finds the position just past the last line break in the file.
+   *
+   * @param file The file to search.
+   * @exception IOException If the file could not be read.
+   */
+  private long endOfLastRecord(FileChannel file) throws IOException
+  {
+    ByteBuffer chunk = ByteBuffer.allocate(BUFFER_SIZE);
+    long end = file.size();
+
+    while (end > 0)
+    {
+      long start = Math.max(0, end - chunk.capacity());
+
+      chunk.clear();
+      chunk.limit((int)(end - start));
+      while (chunk.hasRemaining())
+      {
+        if (file.read(chunk, start + chunk.position()) < 0)
+          throw new EOFException(passwordFile);
+      }
+
+      for (int i = chunk.limit() - 1; i >= 0; i--)
+      {
+        if (chunk.get(i) == CredentialStore.LINEBREAK)
+          return start + i + 1;
+      }
+      end = start;
+    }
+    return 0;
+  }
+
+  /**
+   * Writes the buffered records to the channel.
+   *
+   * @exception IOException If the records could not be written.
+   */
+  private void drain() throws IOException
+  {
+    buffer.flip();
+    try
+    {
+      write(buffer);
+    }
+    finally
+    {
+      buffer.compact();
+    }
+  }
+
+  /**
+   * Writes all the bytes of a buffer to the channel.
+   *
+   * @param bytes The bytes to write.
+   * @exception IOException If the bytes could not be written.
+   */
+  private void write(ByteBuffer bytes) throws IOException
+  {
+    while (bytes.hasRemaining())
+      channel.write(bytes);
+  }
+
+  /**
+   * Builds the line of the password file for an account.
+   *
+   * @param loginID The client's loginID
+   * @param password The client's password
+   */
+  private static byte[] toRecord(String loginID, String password)
+  {
+    byte[] login = loginID.getBytes(StandardCharsets.ISO_8859_1);
+    byte[] pwd = password.getBytes(StandardCharsets.ISO_8859_1);
+    byte[] record = new byte[login.length + pwd.length + 3];
+
+    System.arraycopy(login, 0, record, 0, login.length);
+    record[login.length] = CredentialStore.SPACE;
+    System.arraycopy(pwd, 0, record, login.length + 1, pwd.length);
+    record[record.length - 2] = CredentialStore.RETURN;
+    record[record.length - 1] = CredentialStore.LINEBREAK;
+    return record;
+  }
+
+  //Inner classes ***************************************************
+
+  /**
+   * A record waiting to be written, and the future completed once it
+   * is on disk.
+   */
+  private static class Record
+  {
+    final byte[] bytes;
+    final CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+    Record(byte[] bytes)
+    {
+      this.bytes = bytes;
+    }
+  }
+}
+//End of RegistryWriter class
@@ -0,0 +1,258 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * This class gathers the changes to the list of users shown by the
+ * clients and sends them out together.  Each entry of the list has the
+ * format "&lt;loginID&gt; - &lt;channel&gt;", as in the #add and
+ * #remove commands it replaces.
+ *
+ * Changes made during a short tick are sent to every client as one
+ * frame:
+ *
+ *   #roster
+ *   +&lt;entry added&gt;
+ *   -&lt;entry removed&gt;
+ *
+ * A change undone within the same tick, such as a client leaving a
+ * channel and coming back, is not sent at all.  A client who logs in
+ * is sent the whole list as one frame instead of one #add per user:
+ *
+ *   #rostersnap
+ *   &lt;entry&gt;
+ *
+ * which replaces whatever list the client had.  The list in a snapshot
+ * is the one every client has been sent so far, so the changes of the
+ * next frame apply to it.
+ *
+ * Two frames waiting for the same client can be merged into one with
+ * the same effect, which is how a slow client's outbound queue keeps
+ * its list right without holding a frame per tick.
+ */
+public class RosterStage
+{
+  //Class variables *************************************************
+
+  /**
+   * The verbs of the two frames.
+   */
+  public static final String DELTA = "#roster";
+  public static final String SNAPSHOT = "#rostersnap";
+
+  /**
+   * The time changes are gathered for before they are sent, in
+   * milliseconds.
+   */
+  static final int TICK = 50;
+
+  //Instance variables **********************************************
+
+  /**
+   * The list as every client has been sent it.  Guarded by this.
+   */
+  private final Set<String> published = new TreeSet<String>();
+
+  /**
+   * The entries changed since the last frame, in the order they were
+   * first changed, with whether each is now in the list.  Guarded by
+   * this.
+   */
+  private final Map<String, Boolean> pending =
+    new LinkedHashMap<String, Boolean>();
+
+  /**
+   * Indicates a flush has been scheduled.  Guarded by this.
+   */
+  private boolean scheduled = false;
+
+  /**
+   * Sends a frame to every client.
+   */
+  private final Consumer<String> broadcaster;
+
+  /**
+   * Runs the flush at the end of each tick.
+   */
+  private final ScheduledExecutorService ticker;
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs an empty roster stage.
+   *
+   * @param broadcaster Sends a frame to every client.
+   * @param ticker Runs the flush at the end of each tick.
+   */
+  public RosterStage
+    (Consumer<String> broadcaster, ScheduledExecutorService ticker)
+  {
+    this.broadcaster = broadcaster;
+    this.ticker = ticker;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Adds an entry to the list.
+   *
+   * @param entry The entry.
+   */
+  public synchronized void add(String entry)
+  {
+    change(entry, true);
+  }
+
+  /**
+   * Removes an entry from the list.
+   *
+   * @param entry The entry.
+   */
+  public synchronized void remove(String entry)
+  {
+    change(entry, false);
+  }
+
+  /**
+   * Sends the list to a client as a snapshot.  No frame of changes is
+   * sent while this runs, so the client gets every change made after
+   * the list it was sent.
+   *
+   * @param target Sends the snapshot to the client.
+   */
+  public synchronized void sendSnapshot(Consumer<String> target)
+  {
+    StringBuilder frame = new StringBuilder(SNAPSHOT);
+
+    for (String entry : published)
+      frame.append('\n').append(entry);
+    target.accept(frame.toString());
+  }
+
+  /**
+   * Sends the changes gathered so far to every client and makes them
+   * part of the published list.
+   */
+  public synchronized void flush()
+  {
+    scheduled = false;
+    if (pending.isEmpty())
+      return;
+
+    StringBuilder frame = new StringBuilder(DELTA);
+
+    for (Map.Entry<String, Boolean> change : pending.entrySet())
+    {
+      String entry = change.getKey();
+      boolean added = change.getValue();
+
+      // An entry already in the state it ends up in is not a change
+      if (added ? published.add(entry) : published.remove(entry))
+        frame.append('\n').append(added ? '+' : '-').append(entry);
+    }
+    pending.clear();
+
+    if (frame.length() > DELTA.length())
+      broadcaster.accept(frame.toString());
+  }
+
+  /**
+   * Verifies if a message is a #roster or #rostersnap frame.
+   *
+   * @param message The message.
+   */
+  public static boolean isFrame(Object message)
+  {
+    return (message instanceof String)
+      && (isVerb((String)message, DELTA) || isVerb((String)message, SNAPSHOT));
+  }
+
+  /**
+   * Merges two frames into one that leaves a client's list as the
+   * first followed by the second would.  A snapshot second replaces
+   * the first; the changes of a delta second are applied to the list
+   * of a snapshot first, or combined with the changes of a delta first
+   * with the last change to an entry winning.
+   *
+   * @param first The frame sent first.
+   * @param second The frame sent after it.
+   * @return The merged frame.
+   */
+  public static String merge(String first, String second)
+  {
+    if (isVerb(second, SNAPSHOT))
+      return second;
+
+    String[] changes = second.split("\n");
+
+    if (isVerb(first, SNAPSHOT))
+    {
+      Set<String> list = new TreeSet<String>
+        (Arrays.asList(first.split("\n")));
+      list.remove(SNAPSHOT);
+
+      for (int i = 1; i < changes.length; i++)
+      {
+        String entry = changes[i].substring(1);
+        if (changes[i].charAt(0) == '+')
+          list.add(entry);
+        else
+          list.remove(entry);
+      }
+
+      StringBuilder frame = new StringBuilder(SNAPSHOT);
+      for (String entry : list)
+        frame.append('\n').append(entry);
+      return frame.toString();
+    }
+
+    Map<String, Character> merged = new LinkedHashMap<String, Character>();
+    String[] earlier = first.split("\n");
+
+    for (int i = 1; i < earlier.length; i++)
+      merged.put(earlier[i].substring(1), earlier[i].charAt(0));
+    for (int i = 1; i < changes.length; i++)
+      merged.put(changes[i].substring(1), changes[i].charAt(0));
+
+    StringBuilder frame = new StringBuilder(DELTA);
+    for (Map.Entry<String, Character> change : merged.entrySet())
+      frame.append('\n').append(change.getValue()).append(change.getKey());
+    return frame.toString();
+  }
+
+  /**
+   * Verifies if the first line of a frame is the given verb.
+   *
+   * @param frame The frame.
+   * @param verb The verb.
+   */
+  private static boolean isVerb(String frame, String verb)
+  {
+    return frame.startsWith(verb)
+      && (frame.length() == verb.length()
+         || frame.charAt(verb.length()) == '\n');
+  }
+
+  /**
+   * Records a change and makes sure a flush is coming.  Only the last
+   * change to an entry counts, so one undone before the flush leaves
+   * the published list as it was and is not sent.  Must be called with
+   * the stage locked.
+   *
+   * @param entry The entry.
+   * @param added true if the entry is added, false if removed.
+   */
+  private void change(String entry, boolean added)
+  {
+    pending.put(entry, added);
+
+    if (!scheduled)
+    {
+      scheduled = true;
+      ticker.schedule(this::flush, TICK, TimeUnit.MILLISECONDS);
+    }
+  }
+}
+//End of RosterStage class
@@ -0,0 +1,235 @@
+package server;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class counts what the server does, so that when chat gets slow
+ * it can be told where the time goes.  It keeps counters of messages,
+ * characters, send failures, logins and disconnections, and a latency
+ * histogram for each command clients may send.
+ *
+ * Counting and recording take no lock and create no object, so they
+ * can be done on every message.  The histograms are created when the
+ * commands are registered, not when a verb is first seen, so a client
+ * sending made up commands cannot make the server create more of them.
+ */
+public class ServerMetrics
+{
+  //Class variables *************************************************
+
+  /**
+   * The names the histograms of the work that is not a command are
+   * kept under: a normal message sent to a channel, and a line typed
+   * by a client who is logging in.
+   */
+  public static final String MESSAGE = "message";
+  public static final String LOGIN = "login";
+
+  //Instance variables **********************************************
+
+  /**
+   * The time the counting started, from System.currentTimeMillis.
+   */
+  private final long startTime = System.currentTimeMillis();
+
+  /**
+   * The messages received from and sent to clients, and the number of
+   * characters in those that were text.
+   */
+  private final LongAdder messagesIn = new LongAdder();
+  private final LongAdder messagesOut = new LongAdder();
+  private final LongAdder charactersIn = new LongAdder();
+  private final LongAdder charactersOut = new LongAdder();
+
+  /**
+   * The messages that could not be sent to a client.
+   */
+  private final LongAdder sendFailures = new LongAdder();
+
+  /**
+   * The logins completed and the logged in clients that disconnected.
+   */
+  private final LongAdder logins = new LongAdder();
+  private final LongAdder disconnects = new LongAdder();
+
+  /**
+   * The time taken by each command, indexed by verb.
+   */
+  private final ConcurrentMap<String, LatencyHistogram> latencies =
+    new ConcurrentHashMap<String, LatencyHistogram>();
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs a registry with histograms for the work that is not a
+   * command.
+   */
+  public ServerMetrics()
+  {
+    addHistogram(MESSAGE);
+    addHistogram(LOGIN);
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Creates the histogram of a command if it does not have one.
+   *
+   * @param verb The verb of the command.
+   */
+  public void addHistogram(String verb)
+  {
+    latencies.putIfAbsent(verb, new LatencyHistogram());
+  }
+
+  /**
+   * Records the time a command took.  Times of a verb that has no
+   * histogram are not recorded.
+   *
+   * @param verb The verb of the command.
+   * @param nanos The time in nanoseconds.
+   */
+  public void recordLatency(String verb, long nanos)
+  {
+    LatencyHistogram histogram = latencies.get(verb);
+
+    if (histogram != null)
+      histogram.record(nanos);
+  }
+
+  /**
+   * Returns the histogram of a command.
+   *
+   * @param verb The verb of the command.
+   * @return The histogram, or null if the command has none.
+   */
+  public LatencyHistogram getHistogram(String verb)
+  {
+    return latencies.get(verb);
+  }
+
+  /**
+   * Returns the histograms of every command, indexed by verb in
+   * alphabetical order.
+   */
+  public SortedMap<String, LatencyHistogram> getHistograms()
+  {
+    return new TreeMap<String, LatencyHistogram>(latencies);
+  }
+
+  /**
+   * Counts a message received from a client.
+   *
+   * @param message The message.
+   */
+  public void countMessageIn(Object message)
+  {
+    messagesIn.increment();
+    if (message instanceof String)
+      charactersIn.add(((String)message).length());
+  }
+
+  /**
+   * Counts a message sent to a client.
+   *
+   * @param message The message.
+   */
+  public void countMessageOut(Object message)
+  {
+    messagesOut.increment();
+    if (message instanceof String)
+      charactersOut.add(((String)message).length());
+  }
+
+  /**
+   * Counts a message that could not be sent.
+   */
+  public void countSendFailure()
+  {
+    sendFailures.increment();
+  }
+
+  /**
+   * Counts a completed login.
+   */
+  public void countLogin()
+  {
+    logins.increment();
+  }
+
+  /**
+   * Counts a logged in client that disconnected.
+   */
+  public void countDisconnect()
+  {
+    disconnects.increment();
+  }
+
+  /**
+   * Returns the time the counting started, from
+   * System.currentTimeMillis.
+   */
+  public long getStartTime()
+  {
+    return startTime;
+  }
+
+  /**
+   * Returns the number of messages received from clients.
+   */
+  public long getMessagesIn()
+  {
+    return messagesIn.sum();
+  }
+
+  /**
+   * Returns the number of messages sent to clients.
+   */
+  public long getMessagesOut()
+  {
+    return messagesOut.sum();
+  }
+
+  /**
+   * Returns the number of characters in the text received.
+   */
+  public long getCharactersIn()
+  {
+    return charactersIn.sum();
+  }
+
+  /**
+   * Returns the number of characters in the text sent.
+   */
+  public long getCharactersOut()
+  {
+    return charactersOut.sum();
+  }
+
+  /**
+   * Returns the number of messages that could not be sent.
+   */
+  public long getSendFailures()
+  {
+    return sendFailures.sum();
+  }
+
+  /**
+   * Returns the number of logins completed.
+   */
+  public long getLogins()
+  {
+    return logins.sum();
+  }
+
+  /**
+   * Returns the number of logged in clients that disconnected.
+   */
+  public long getDisconnects()
+  {
+    return disconnects.sum();
+  }
+}
+//End of ServerMetrics class
@@ -0,0 +1,242 @@
+package server;
+
+import java.util.*;
+import drawpad.StrokeCodec;
+
+/**
+ * This class keeps what has been drawn on the pad of one channel, so
+ * that a client who arrives late can be sent the whole pad at once
+ * instead of every command drawn on it since the server started.
+ *
+ * The segments are kept as their coordinates in a single growing
+ * array rather than as the commands that drew them.  A segment that
+ * carries on in a straight line from the one before it, as the
+ * segments of a slow straight drag do, lengthens that one instead of
+ * being added.  The array is bounded: once it holds MAX_SEGMENTS,
+ * the oldest quarter of them is dropped, so a pad that is drawn on
+ * for days without being cleared loses its oldest lines for newcomers
+ * rather than growing without limit.  The #snapshot
+ * command sent to a newcomer is built from that array when it is
+ * first asked for, and kept until the pad changes, so clients joining
+ * together share the work of compressing it.  It is compressed from a
+ * copy of the array, so drawing on the pad is not held up meanwhile.
+ */
+public class Whiteboard
+{
+  //Class variables *************************************************
+
+  /**
+   * The number of coordinates the array holds at first.
+   */
+  static final int INITIAL_CAPACITY = 1024;
+
+  /**
+   * The largest number of segments kept on a pad.
+   */
+  static final int MAX_SEGMENTS = 1 << 18;
+
+  //Instance variables **********************************************
+
+  /**
+   * The coordinates of the segments, four per segment.
+   */
+  private int[] coords = new int[INITIAL_CAPACITY];
+
+  /**
+   * The number of coordinates in use.
+   */
+  private int length = 0;
+
+  /**
+   * The #snapshot command for the segments, or null if it has not been
+   * built since the pad last changed.
+   */
+  private String snapshot = null;
+
+  /**
+   * The number of changes made to the pad, so that a snapshot built
+   * from a copy is only kept if the pad has not changed since.
+   */
+  private long version = 0;
+
+  /**
+   * Held while a snapshot is built, so that clients asking for it at
+   * the same time wait for one build rather than each making their
+   * own.
+   */
+  private final Object building = new Object();
+
+  //Instance methods ************************************************
+
+  /**
+   * Records the segments drawn by a #linedraw or #strokes command.
+   * Malformed commands are ignored, as they are by the pads.  The
+   * coordinates of a #linedraw are clamped to the range a #snapshot can
+   * hold, so the pad is sent to newcomers as it was recorded.
+   *
+   * @param command The command.
+   * @return false if the command was not a drawing command.
+   */
+  public boolean record(String command)
+  {
+    try
+    {
+      if (command.startsWith(StrokeCodec.COMMAND + " "))
+      {
+        int[] segments = StrokeCodec.decode(command);
+        add(segments, segments.length);
+        return true;
+      }
+      if (command.startsWith("#linedraw"))
+      {
+        // #linedraw<x1>,<y1>,<x2>,<y2>
+        String[] values = command.substring(9).split(",");
+        if (values.length == StrokeCodec.COORDS_PER_SEGMENT)
+        {
+          int[] segment = new int[StrokeCodec.COORDS_PER_SEGMENT];
+          for (int i = 0; i < segment.length; i++)
+            segment[i] =
+              StrokeCodec.clamp(Integer.parseInt(values[i].trim()));
+          add(segment, segment.length);
+        }
+        return true;
+      }
+    }
+    catch (IllegalArgumentException e)
+    {
+      // Also catches NumberFormatException
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Adds segments to the pad.
+   *
+   * @param segments The coordinates of the segments, four per segment.
+   * @param count The number of coordinates to add.
+   */
+  public synchronized void add(int[] segments, int count)
+  {
+    int size = StrokeCodec.COORDS_PER_SEGMENT;
+
+    if (count < size)
+      return;
+
+    for (int i = 0; i + size <= count; i += size)
+    {
+      if (!extendLast(segments, i))
+      {
+        if (length + size > coords.length)
+          coords = Arrays.copyOf(coords, coords.length * 2);
+
+        System.arraycopy(segments, i, coords, length, size);
+        length += size;
+      }
+    }
+    snapshot = null;
+    version++;
+
+    if (length > MAX_SEGMENTS * size)
+    {
+      int drop = (MAX_SEGMENTS / 4) * size;
+
+      System.arraycopy(coords, drop, coords, 0, length - drop);
+      length -= drop;
+    }
+  }
+  /**
+   * Erases the pad.  The array shrinks back to its initial size, so a
+   * pad that was drawn on heavily does not hold on to the memory.
+   */
+  public synchronized void clear()
+  {
+    coords = new int[INITIAL_CAPACITY];
+    length = 0;
+    snapshot = null;
+    version++;
+  }
+
+  /**
+   * Returns the number of segments on the pad.
+   */
+  public synchronized int getSegmentCount()
+  {
+    return length / StrokeCodec.COORDS_PER_SEGMENT;
+  }
+
+  /**
+   * Lengthens the last segment of the pad to cover a new one, if the
+   * new one starts where it ends and goes on in the same direction.
+   * A new segment that is only the point the last one ends at adds
+   * nothing either.  Must be called with the pad locked.
+   *
+   * @param segments The coordinates of the new segments.
+   * @param offset The index of the new segment's first coordinate.
+   * @return true if the new segment needs no room of its own.
+   */
+  private boolean extendLast(int[] segments, int offset)
+  {
+    if (length == 0)
+      return false;
+
+    int last = length - StrokeCodec.COORDS_PER_SEGMENT;
+    int x = coords[last + 2];
+    int y = coords[last + 3];
+
+    if (segments[offset] != x || segments[offset + 1] != y)
+      return false;
+
+    long dx = x - coords[last];
+    long dy = y - coords[last + 1];
+    long nx = segments[offset + 2] - x;
+    long ny = segments[offset + 3] - y;
+
+    if (nx == 0 && ny == 0)
+      return true;
+
+    // Same line when the cross product is 0, same way when the dot
+    // product is positive; a point has neither, so it is not extended
+    if (dx * ny - dy * nx != 0 || dx * nx + dy * ny <= 0)
+      return false;
+
+    coords[last + 2] = segments[offset + 2];
+    coords[last + 3] = segments[offset + 3];
+    return true;
+  }
+
+  /**
+   * Returns a #snapshot command holding every segment of the pad, or
+   * null if the pad is blank.  The pad is only locked while its
+   * segments are copied, not while they are compressed.
+   */
+  public String getSnapshot()
+  {
+    synchronized (building)
+    {
+      int[] copy;
+      long copied;
+
+      synchronized (this)
+      {
+        if (length == 0)
+          return null;
+        if (snapshot != null)
+          return snapshot;
+
+        copy = Arrays.copyOf(coords, length);
+        copied = version;
+      }
+
+      String built = StrokeCodec.encodeSnapshot(copy, copy.length);
+
+      synchronized (this)
+      {
+        if (version == copied)
+          snapshot = built;
+      }
+      return built;
+    }
+  }
+}
+//End of Whiteboard class
@@ -1 +1 @@
-package serverUIUtilities;// Added in Phase 5import server.*;public class ServerInputKeyAdapter extends java.awt.event.KeyAdapter{  EchoServer adaptee;  public ServerInputKeyAdapter(EchoServer adaptee)   {    this.adaptee = adaptee;  }  public void keyPressed(java.awt.event.KeyEvent e)   {    if (e.getKeyCode()==e.VK_ENTER)      adaptee.notifyObservers("#enter");  }                          }
\ No newline at end of file
+package serverUIUtilities;// Added in Phase 5import java.awt.*;import server.*;public class ServerInputKeyAdapter extends java.awt.event.KeyAdapter{  EchoServer adaptee;  public ServerInputKeyAdapter(EchoServer adaptee)   {    this.adaptee = adaptee;  }  public void keyPressed(java.awt.event.KeyEvent e)   {    // The line is read here, on the event thread, since the server's    // events reach the window later and the field may have changed    if (e.getKeyCode()==e.VK_ENTER)    {      TextField input = (TextField)e.getSource();      String line = input.getText();      input.setText("");      adaptee.handleMessageFromServerUI(line);    }  }                          }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package commonUIUtilities.window;
+
+import java.util.*;
+
+/**
+ * This class gives the benchmarks the index a StringList keeps its
+ * strings in, so that what the list box does on each change can be
+ * timed.  A StringList itself is a list box, which cannot be made
+ * without a display.
+ */
+public class StringListIndex
+{
+  /**
+   * Returns an empty index, in the order a StringList shows its
+   * strings.
+   */
+  public static SortedSet<String> create()
+  {
+    return new TreeSet<String>(StringList.ORDER);
+  }
+}
+//End of StringListIndex class
@@ -0,0 +1,124 @@
+package drawpad;
+
+import java.util.*;
+import static server.Checks.*;
+
+/**
+ * This class checks that segments packed by StrokeCodec, in a #strokes
+ * or a #snapshot command, unpack to the same coordinates, and that
+ * coordinates too large for a short are clamped rather than wrapped.
+ */
+public class StrokeCodecCheck
+{
+  public static void main(String[] args)
+  {
+    run("StrokeCodecCheck", () ->
+    {
+      checkRoundTrip();
+      checkExtremes();
+      checkClamp();
+      checkMalformed();
+    });
+  }
+
+  /**
+   * Random drags come back as they were drawn.
+   */
+  static void checkRoundTrip()
+  {
+    Random random = new Random(3);
+
+    for (int n = 0; n < 200; n += 7)
+    {
+      int[] coords = drag(random, n);
+      String strokes = StrokeCodec.encode(coords, coords.length);
+      String snapshot = StrokeCodec.encodeSnapshot(coords, coords.length);
+
+      check(strokes.startsWith(StrokeCodec.COMMAND + " "), "verb");
+      check(Arrays.equals(coords, StrokeCodec.decode(strokes)),
+        "#strokes round trip of " + n + " segments");
+      check(Arrays.equals(coords, StrokeCodec.decodeSnapshot(snapshot)),
+        "#snapshot round trip of " + n + " segments");
+    }
+  }
+
+  /**
+   * The ends of the short range survive, even where the difference
+   * between two points does not fit in 16 bits.
+   */
+  static void checkExtremes()
+  {
+    int[] coords = {Short.MIN_VALUE, Short.MAX_VALUE,
+      Short.MAX_VALUE, Short.MIN_VALUE, 0, 0, -1, 1};
+
+    check(Arrays.equals(coords,
+      StrokeCodec.decode(StrokeCodec.encode(coords, coords.length))),
+      "extremes");
+  }
+
+  /**
+   * Coordinates outside the short range come back at its ends.
+   */
+  static void checkClamp()
+  {
+    int[] coords = {40000, -40000, Integer.MAX_VALUE, Integer.MIN_VALUE};
+    int[] clamped = {Short.MAX_VALUE, Short.MIN_VALUE,
+      Short.MAX_VALUE, Short.MIN_VALUE};
+
+    check(Arrays.equals(clamped,
+      StrokeCodec.decode(StrokeCodec.encode(coords, coords.length))),
+      "#strokes clamps");
+    check(Arrays.equals(clamped, StrokeCodec.decodeSnapshot(
+      StrokeCodec.encodeSnapshot(coords, coords.length))),
+      "#snapshot clamps");
+    checkEquals(5, StrokeCodec.clamp(5), "clamp in range");
+  }
+
+  /**
+   * Commands with another verb or bad data are refused.
+   */
+  static void checkMalformed()
+  {
+    for (String command : new String[] {"#linedraw1,2,3,4", "#strokes !!",
+      "#snapshot AAAA"})
+    {
+      try
+      {
+        if (command.startsWith(StrokeCodec.SNAPSHOT))
+          StrokeCodec.decodeSnapshot(command);
+        else
+          StrokeCodec.decode(command);
+        throw new AssertionError("accepted " + command);
+      }
+      catch (IllegalArgumentException e)
+      {
+        check(true, "refused " + command);
+      }
+    }
+  }
+
+  /**
+   * Makes the segments of a drag of random steps.
+   *
+   * @param random The source of the steps.
+   * @param segments The number of segments.
+   */
+  static int[] drag(Random random, int segments)
+  {
+    int[] coords = new int[segments * StrokeCodec.COORDS_PER_SEGMENT];
+    int x = random.nextInt(800);
+    int y = random.nextInt(600);
+
+    for (int i = 0; i < coords.length; i += 4)
+    {
+      coords[i] = x;
+      coords[i + 1] = y;
+      x += random.nextInt(9) - 4;
+      y += random.nextInt(9) - 4;
+      coords[i + 2] = x;
+      coords[i + 3] = y;
+    }
+    return coords;
+  }
+}
+//End of StrokeCodecCheck class
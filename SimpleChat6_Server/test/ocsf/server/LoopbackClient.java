@@ -0,0 +1,247 @@
+package ocsf.server;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * This class is a client connected to a server through memory instead
+ * of a socket, so that the checks and benchmarks can connect thousands
+ * of clients to one server.  It stands in for the socket of the
+ * server's ConnectionToClient: what the server writes to the client
+ * is counted, and kept if asked for, and the client never sends
+ * anything, so the connection's thread waits for a message as an idle
+ * client's does.
+ *
+ * The client can be made to stop reading, as a client whose TCP window
+ * is full does: writes to it then block until it reads again or the
+ * connection is closed.
+ */
+public class LoopbackClient extends Socket
+{
+  //Class variables *************************************************
+
+  /**
+   * The header every object stream starts with.
+   */
+  private static final byte[] HEADER =
+    {(byte)0xac, (byte)0xed, 0x00, 0x05};
+
+  //Instance variables **********************************************
+
+  /**
+   * The server's end of the connection.
+   */
+  private final ConnectionToClient connection;
+
+  /**
+   * What the server has written to the client, or null if it is not
+   * kept.  Guarded by this.
+   */
+  private final ByteArrayOutputStream received;
+
+  /**
+   * The number of bytes the server has written to the client.
+   * Guarded by this.
+   */
+  private long bytesReceived = 0;
+
+  /**
+   * Indicates the client is not reading.  Guarded by this.
+   */
+  private boolean stalled = false;
+
+  /**
+   * Indicates the connection is closed.  Guarded by this.
+   */
+  private boolean closed = false;
+
+  //Constructors ****************************************************
+
+  /**
+   * Connects a client.
+   *
+   * @param clients The group the connection's thread is created in.
+   * @param server The server the connection reports its end to.
+   * @param keep Indicates what the server writes is kept, so that it
+   *        can be read with getMessages.
+   * @exception IOException If the connection could not be made.
+   */
+  public LoopbackClient(ThreadGroup clients, AbstractServer server,
+    boolean keep) throws IOException
+  {
+    received = keep ? new ByteArrayOutputStream() : null;
+    connection = new ConnectionToClient(clients, this, server);
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Returns the server's end of the connection.
+   */
+  public ConnectionToClient getConnection()
+  {
+    return connection;
+  }
+
+  /**
+   * Returns the number of bytes the server has written to the client.
+   */
+  public synchronized long getBytesReceived()
+  {
+    return bytesReceived;
+  }
+
+  /**
+   * Returns the messages the server has written to the client so far.
+   * A message still being written is left out.
+   *
+   * @exception IOException If the client does not keep its messages.
+   */
+  public List<Object> getMessages() throws IOException
+  {
+    byte[] bytes;
+
+    synchronized (this)
+    {
+      if (received == null)
+        throw new IOException("The messages are not kept.");
+      bytes = received.toByteArray();
+    }
+
+    List<Object> messages = new ArrayList<Object>();
+    ObjectInputStream input =
+      new ObjectInputStream(new ByteArrayInputStream(bytes));
+
+    try
+    {
+      while (true)
+        messages.add(input.readObject());
+    }
+    catch (EOFException | StreamCorruptedException e)
+    {
+      // The end of what has been written
+    }
+    catch (ClassNotFoundException e)
+    {
+      throw new IOException(e);
+    }
+    return messages;
+  }
+
+  /**
+   * Makes the client stop or resume reading.
+   *
+   * @param stalled true to stop reading.
+   */
+  public synchronized void setStalled(boolean stalled)
+  {
+    this.stalled = stalled;
+    notifyAll();
+  }
+
+  public synchronized boolean isClosed()
+  {
+    return closed;
+  }
+
+  public synchronized void close()
+  {
+    closed = true;
+    notifyAll();
+  }
+
+  public InetAddress getInetAddress()
+  {
+    return InetAddress.getLoopbackAddress();
+  }
+
+  public void setSoTimeout(int timeout)
+  {
+    // Reads never time out
+  }
+
+  public InputStream getInputStream()
+  {
+    return new InputStream()
+    {
+      private int next = 0;
+
+      public int read() throws IOException
+      {
+        byte[] one = new byte[1];
+        return (read(one, 0, 1) < 0) ? -1 : one[0] & 0xff;
+      }
+
+      public int read(byte[] bytes, int offset, int length)
+        throws IOException
+      {
+        if (length == 0)
+          return 0;
+
+        if (next < HEADER.length)
+        {
+          int count = Math.min(length, HEADER.length - next);
+          System.arraycopy(HEADER, next, bytes, offset, count);
+          next += count;
+          return count;
+        }
+
+        // Nothing is ever sent, so wait for the end of the connection
+        synchronized (LoopbackClient.this)
+        {
+          while (!closed)
+          {
+            try
+            {
+              LoopbackClient.this.wait();
+            }
+            catch (InterruptedException e)
+            {
+              throw new InterruptedIOException();
+            }
+          }
+        }
+        return -1;
+      }
+    };
+  }
+
+  public OutputStream getOutputStream()
+  {
+    return new OutputStream()
+    {
+      public void write(int b) throws IOException
+      {
+        write(new byte[] {(byte)b}, 0, 1);
+      }
+
+      public void write(byte[] bytes, int offset, int length)
+        throws IOException
+      {
+        synchronized (LoopbackClient.this)
+        {
+          while (stalled && !closed)
+          {
+            try
+            {
+              LoopbackClient.this.wait();
+            }
+            catch (InterruptedException e)
+            {
+              throw new InterruptedIOException();
+            }
+          }
+
+          if (closed)
+            throw new SocketException("Socket closed");
+
+          bytesReceived += length;
+          if (received != null)
+            received.write(bytes, offset, length);
+        }
+      }
+    };
+  }
+}
+//End of LoopbackClient class
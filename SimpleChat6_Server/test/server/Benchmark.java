@@ -0,0 +1,1136 @@
+package server;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import commonUIUtilities.window.StringListIndex;
+import drawpad.StrokeCodec;
+import ocsf.server.*;
+
+/**
+ * This class times the operations the server does most often, so that
+ * a change to one of them can be measured before and after.  Where the
+ * server's old way of doing an operation is worth comparing with, it
+ * is reproduced here and timed beside the new one.  The data comes
+ * from fixed seeds, so every run times the same work, and each
+ * operation is run unmeasured first so that it is timed once compiled.
+ *
+ * The operations are grouped in suites, which are run in turn, or only
+ * those named.
+ *
+ * Usage: java server.Benchmark [rounds [suite ...]]
+ */
+public class Benchmark
+{
+  //Class variables *************************************************
+
+  /**
+   * The number of timed rounds of each operation, unless given.
+   */
+  static final int DEFAULT_ROUNDS = 5;
+
+  /**
+   * The numbers of clients the server is timed with.
+   */
+  static final int[] CLIENTS = {10, 1000, 10000};
+
+  /**
+   * The number of accounts in the password file.
+   */
+  static final int ACCOUNTS = 100000;
+
+  /**
+   * The number of clients, and of channels they are spread over, when
+   * channel messages are timed.
+   */
+  static final int CHANNEL_CLIENTS = 10000;
+  static final int CHANNELS = 1000;
+
+  /**
+   * The numbers of clients a public message is timed with.
+   */
+  static final int[] BROADCAST_CLIENTS = {1000, 10000};
+
+  /**
+   * The longest time a server may take to send its messages, in
+   * milliseconds.
+   */
+  static final int TIMEOUT = 60000;
+
+  /**
+   * The largest number of threads sending at once, and the number of
+   * messages they send between them.
+   */
+  static final int SENDERS = 32;
+  static final int CONTENDED_MESSAGES = 65536;
+
+  /**
+   * The number of users, and of users each of them blocks, when blocks
+   * are timed.
+   */
+  static final int BLOCK_USERS = 10000;
+  static final int BLOCKS = 50;
+
+  /**
+   * The number of messages written to an object stream in each round.
+   */
+  static final int STREAM_MESSAGES = 100000;
+
+  /**
+   * The number of clients on the server's list of clients that
+   * disconnect and log on again at once.
+   */
+  static final int LISTED_CLIENTS = 10000;
+
+  /**
+   * The verbs of the commands clients sent, in the order the server
+   * used to compare commands against them, and a command of each.
+   */
+  static final String[] VERBS = {"#whoison", "#getchannel", "#private",
+    "#channel", "#nochannel", "#pub", "#fwd", "#unfwd", "#block",
+    "#unblock", "#whoiblock", "#whoblocksme", "#linedraw"};
+  static final String[] COMMANDS = {"#whoison", "#getchannel",
+    "#private user1 hi", "#channel sports", "#nochannel", "#pub hi",
+    "#fwd user1", "#unfwd", "#block user1", "#unblock user1",
+    "#whoiblock", "#whoblocksme", "#linedraw1,2,3,4"};
+
+  /**
+   * The number of messages waiting for a client that falls behind.
+   */
+  static final int BACKLOG = 1000;
+
+  /**
+   * The number of segments drawn on the pad a newcomer is sent.
+   */
+  static final int PAD_SEGMENTS = 1000000;
+
+  /**
+   * The number of segments in a #strokes command.
+   */
+  static final int BATCH = 128;
+
+  /**
+   * The suites, by name, in the order they are run.
+   */
+  private static final Map<String, Suite> SUITES =
+    new LinkedHashMap<String, Suite>();
+
+  static
+  {
+    SUITES.put("getClient", Benchmark::getClient);
+    SUITES.put("login", Benchmark::login);
+    SUITES.put("channels", Benchmark::channels);
+    SUITES.put("broadcast", Benchmark::broadcast);
+    SUITES.put("contention", Benchmark::contention);
+    SUITES.put("dispatch", Benchmark::dispatch);
+    SUITES.put("blocks", Benchmark::blocks);
+    SUITES.put("session", Benchmark::session);
+    SUITES.put("stream", Benchmark::stream);
+    SUITES.put("clientList", Benchmark::clientList);
+    SUITES.put("LoginSet", Benchmark::loginSet);
+    SUITES.put("strokes", Benchmark::strokes);
+    SUITES.put("histogram", Benchmark::histogram);
+    SUITES.put("pad", Benchmark::pad);
+    SUITES.put("roster", Benchmark::roster);
+  }
+
+  /**
+   * The number of timed rounds of each operation.
+   */
+  private static int rounds = DEFAULT_ROUNDS;
+
+  /**
+   * Keeps the results from being optimized away.
+   */
+  static long sink = 0;
+
+  //Class methods ***************************************************
+
+  public static void main(String[] args) throws Exception
+  {
+    List<String> names = new ArrayList<String>(SUITES.keySet());
+
+    if (args.length > 0)
+      rounds = Integer.parseInt(args[0]);
+    if (args.length > 1)
+      names = Arrays.asList(args).subList(1, args.length);
+
+    for (String name : names)
+    {
+      Suite suite = SUITES.get(name);
+
+      if (suite == null)
+      {
+        System.err.println("No suite " + name + ", only " + SUITES.keySet());
+        System.exit(1);
+      }
+      System.out.println("== " + name);
+      suite.run();
+    }
+
+    // The servers' threads would keep the program running
+    System.out.println("(" + sink + ")");
+    System.exit(0);
+  }
+
+  /**
+   * Runs an operation once unmeasured, then prints the time each run
+   * took in the fastest of the timed rounds.
+   *
+   * @param name The name of the operation.
+   * @param operations The number of runs in a round.
+   * @param operation The operation, given the number of the run.
+   */
+  static void time(String name, int operations, Operation operation)
+    throws Exception
+  {
+    long best = Long.MAX_VALUE;
+
+    for (int round = -1; round < rounds; round++)
+    {
+      long start = System.nanoTime();
+      for (int i = 0; i < operations; i++)
+        sink += operation.run(i);
+      long elapsed = System.nanoTime() - start;
+
+      // Round -1 is the warm-up
+      if (round >= 0)
+        best = Math.min(best, elapsed);
+    }
+
+    report(name, (double)best / operations, "ns/op");
+  }
+
+  /**
+   * Prints a measurement.
+   *
+   * @param name What was measured.
+   * @param value The measurement.
+   * @param unit The unit of the measurement.
+   */
+  static void report(String name, double value, String unit)
+  {
+    System.out.printf("%-50s %14.1f %s%n", name, value, unit);
+  }
+
+  /**
+   * Logs in clients to a server, whose first accounts are theirs, and
+   * prints the time each login took.
+   *
+   * @param fixture The server.
+   * @param clients The number of clients.
+   * @return The clients, in the order of their accounts.
+   */
+  static LoopbackClient[] logIn(ServerFixture fixture, int clients)
+    throws Exception
+  {
+    LoopbackClient[] loggedIn = new LoopbackClient[clients];
+    long start = System.nanoTime();
+
+    for (int i = 0; i < clients; i++)
+      loggedIn[i] = fixture.login(ServerFixture.name(i), false);
+    report("login, " + clients + " clients logged in",
+      (double)(System.nanoTime() - start) / clients, "ns/client");
+    return loggedIn;
+  }
+
+  /**
+   * Finds logged on clients by their loginIDs, in the server's index
+   * and by going through every connection as the server used to.
+   */
+  static void getClient() throws Exception
+  {
+    for (int clients : CLIENTS)
+    {
+      ServerFixture fixture = new ServerFixture(clients);
+      EchoServer server = fixture.server;
+      String[] lookups = lookups(new Random(23), clients);
+
+      logIn(fixture, clients);
+      time("getClient, index, " + clients + " clients", 1000000,
+        i -> (server.getClient(lookups[i & (lookups.length - 1)]) == null)
+          ? 0 : 1);
+      time("getClient, scan, " + clients + " clients",
+        10000000 / clients,
+        i -> (scan(fixture, lookups[i & (lookups.length - 1)]) == null)
+          ? 0 : 1);
+    }
+  }
+
+  /**
+   * Checks passwords against a file of ACCOUNTS accounts, in the
+   * CredentialStore and by reading the file as the server used to for
+   * every login, and logs clients in and out with it.
+   */
+  static void login() throws Exception
+  {
+    String file = ServerFixture.passwordFile(ACCOUNTS);
+    String[] lookups = lookups(new Random(29), ACCOUNTS / 2);
+    Executor writer = Runnable::run;
+    String password = ServerFixture.PASSWORD;
+
+    time("CredentialStore, " + ACCOUNTS + " accounts loaded", 1,
+      i -> new CredentialStore(file, writer).isValidPwd("user0", password)
+        ? 1 : 0);
+
+    CredentialStore store = new CredentialStore(file, writer);
+    time("CredentialStore.isValidPwd, " + ACCOUNTS + " accounts", 1000000,
+      i -> store.isValidPwd(lookups[i & (lookups.length - 1)], password)
+        ? 1 : 0);
+    time("password file read, " + ACCOUNTS + " accounts", 1,
+      i -> readPasswordFile(file, lookups[i & (lookups.length - 1)],
+        password) ? 1 : 0);
+
+    ServerFixture fixture = new ServerFixture(ACCOUNTS);
+    fixture.login(ServerFixture.name(ACCOUNTS - 1), false);
+    time("login and logout, " + ACCOUNTS + " accounts", 2000, i ->
+    {
+      fixture.disconnect(
+        fixture.login(lookups[i & (lookups.length - 1)], false));
+      return 0;
+    });
+  }
+
+  /**
+   * Sends chat lines to channels, with CHANNEL_CLIENTS clients spread
+   * over CHANNELS channels.  The members of a channel are found in the
+   * server's channel index; the server used to go through every client
+   * to find them, which is timed beside it.
+   */
+  static void channels() throws Exception
+  {
+    ServerFixture fixture = new ServerFixture(CHANNEL_CLIENTS);
+    LoopbackClient[] clients = logIn(fixture, CHANNEL_CLIENTS);
+    ChannelRegistry channels = new ChannelRegistry();
+    int members = CHANNEL_CLIENTS / CHANNELS;
+
+    for (int i = 0; i < clients.length; i++)
+    {
+      fixture.send(clients[i], "#channel ch" + (i % CHANNELS));
+      channels.join("ch" + (i % CHANNELS), clients[i].getConnection());
+    }
+
+    time("members of a channel, index", 1000000, i ->
+    {
+      long found = 0;
+      for (ConnectionToClient c : channels.getMembers("ch" + (i % CHANNELS)))
+        found += (c == null) ? 0 : 1;
+      return found;
+    });
+    time("members of a channel, scan of " + CHANNEL_CLIENTS + " clients",
+      1000, i -> scanChannel(fixture, "ch" + (i % CHANNELS)));
+    time("chat line to a channel of " + members + ", " + CHANNEL_CLIENTS
+      + " clients", 20000, i ->
+      {
+        fixture.send(clients[i % clients.length], "hello");
+        return 0;
+      });
+  }
+
+  /**
+   * Sends public messages to every logged on client, and times them
+   * until the last client has been written its copy.  Beside it is
+   * timed how the server used to pick the recipients, going through
+   * every connection and building the message again for each one,
+   * before anything was written.
+   */
+  static void broadcast() throws Exception
+  {
+    for (int clients : BROADCAST_CLIENTS)
+    {
+      ServerFixture fixture = new ServerFixture(clients);
+      LoopbackClient[] loggedIn = logIn(fixture, clients);
+      Collection<OutboundQueue> queues =
+        fixture.server.getOutboundQueues().values();
+      int operations = 100000 / clients;
+
+      time("#pub to " + clients + " clients, written", operations, i ->
+      {
+        fixture.send(loggedIn[i % clients], "#pub hello");
+        for (OutboundQueue queue : queues)
+        {
+          if (!queue.awaitDrained(TIMEOUT))
+            throw new IllegalStateException("#pub not written");
+        }
+        return 0;
+      });
+      time("#pub recipients, scan of " + clients + " clients",
+        operations * 10,
+        i -> scanRecipients(fixture, ServerFixture.name(i % clients), "hi"));
+    }
+  }
+
+  /**
+   * Sends private messages from 1 to SENDERS threads at once, each
+   * thread from its own client to its own recipient, and times them
+   * until they have all been written.  Beside it the same messages are
+   * passed to the server under one lock, as the server's own monitor
+   * used to serialize them.
+   */
+  static void contention() throws Exception
+  {
+    ServerFixture fixture = new ServerFixture(2 * SENDERS);
+    LoopbackClient[] clients = logIn(fixture, 2 * SENDERS);
+    ExecutorService senders = Executors.newFixedThreadPool(SENDERS);
+
+    for (int threads = 1; threads <= SENDERS; threads *= 2)
+    {
+      report("#private, " + threads + " threads",
+        sendConcurrently(fixture, clients, senders, threads, false),
+        "ns/message");
+      report("#private, " + threads + " threads, one lock",
+        sendConcurrently(fixture, clients, senders, threads, true),
+        "ns/message");
+    }
+    senders.shutdown();
+  }
+
+  /**
+   * Finds the handler of each client command, in the command registry
+   * and by comparing the command with every verb in turn, as the
+   * server used to.  The handlers do nothing but count.  A command
+   * from a client is also timed into its latency histogram, so the
+   * registry is timed as well with the console's table, which is not.
+   */
+  static void dispatch() throws Exception
+  {
+    CommandRegistry registry = new CommandRegistry(new ServerMetrics());
+    ConnectionToClient client =
+      new ServerFixture(0).connect(false).getConnection();
+    long[] handled = new long[1];
+
+    for (String verb : VERBS)
+    {
+      registry.addClientCommand(verb, (command, c) -> handled[0]++);
+      registry.addServerCommand(verb, (command, c) -> handled[0]++);
+    }
+
+    time("command from a client, registry", 1000000, i ->
+      registry.dispatch(COMMANDS[i % COMMANDS.length], client) ? 1 : 0);
+    time("command from the console, registry", 1000000, i ->
+      registry.dispatch(COMMANDS[i % COMMANDS.length], null) ? 1 : 0);
+    time("command, compared with every verb", 1000000,
+      i -> chain(COMMANDS[i % COMMANDS.length]));
+    sink += handled[0];
+  }
+
+  /**
+   * Looks up loginIDs in block lists, in a LoginSet and in the Vector
+   * the server used to keep them in.
+   */
+  static void loginSet() throws Exception
+  {
+    for (int members : CLIENTS)
+    {
+      LoginSet set = LoginSet.EMPTY;
+      Vector<String> vector = new Vector<String>();
+      String[] lookups = lookups(new Random(17), members);
+
+      for (int i = 0; i < members; i++)
+      {
+        set = set.with(ServerFixture.name(i));
+        vector.add(ServerFixture.name(i));
+      }
+
+      LoginSet blocked = set;
+      time("LoginSet.contains, " + members + " members", 1000000,
+        i -> blocked.contains(lookups[i & (lookups.length - 1)]) ? 1 : 0);
+      time("Vector.contains, " + members + " members",
+        10000000 / members,
+        i -> vector.contains(lookups[i & (lookups.length - 1)]) ? 1 : 0);
+    }
+  }
+
+  /**
+   * Looks up blocks among BLOCK_USERS users who each block BLOCKS
+   * others, in the block graph and in the vector of blocked users
+   * each client used to keep: who blocks a user, as #whoblocksme asks;
+   * whether one user blocks another, as a private message asks; and
+   * which clients a public message goes to.
+   */
+  static void blocks() throws Exception
+  {
+    BlockGraph graph = new BlockGraph();
+    List<Vector<String>> blockedUsers = new ArrayList<Vector<String>>();
+    String[] names = new String[BLOCK_USERS];
+    Random random = new Random(29);
+
+    for (int i = 0; i < BLOCK_USERS; i++)
+      names[i] = ServerFixture.name(i);
+    for (int i = 0; i < BLOCK_USERS; i++)
+    {
+      Vector<String> blocked = new Vector<String>();
+
+      while (blocked.size() < BLOCKS)
+      {
+        String user = names[random.nextInt(BLOCK_USERS)];
+
+        if (!blocked.contains(user))
+        {
+          blocked.add(user);
+          graph.block(names[i], user);
+        }
+      }
+      blockedUsers.add(blocked);
+    }
+
+    String[] users = lookups(new Random(31), BLOCK_USERS / 2);
+    int mask = users.length - 1;
+
+    time("block and unblock, graph", 100000, i ->
+    {
+      String blocker = users[i & mask];
+
+      graph.block(blocker, "newcomer");
+      return graph.unblock(blocker, "newcomer") ? 1 : 0;
+    });
+    time("blockers of a user, graph", 1000000,
+      i -> graph.getBlockers(users[i & mask]).size());
+    time("blockers of a user, scan of " + BLOCK_USERS + " vectors", 100,
+      i -> scanBlockers(blockedUsers, users[i & mask]));
+    time("one user blocking another, graph", 1000000,
+      i -> graph.isBlocking(users[i & mask], users[(i + 1) & mask]) ? 1 : 0);
+    time("one user blocking another, vector", 1000000,
+      i -> blockedUsers.get(i % BLOCK_USERS).contains(users[i & mask])
+        ? 1 : 0);
+    time("#pub recipients of " + BLOCK_USERS + ", graph", 100, i ->
+    {
+      LoginSet blockers = graph.getBlockers(users[i & mask]);
+      long recipients = 0;
+
+      for (String name : names)
+      {
+        if (!blockers.contains(name))
+          recipients++;
+      }
+      return recipients;
+    });
+    time("#pub recipients of " + BLOCK_USERS + ", vectors", 100, i ->
+    {
+      long recipients = 0;
+
+      for (Vector<String> blocked : blockedUsers)
+      {
+        if (!blocked.contains(users[i & mask]))
+          recipients++;
+      }
+      return recipients;
+    });
+  }
+
+  /**
+   * Passes messages from a logged on client to update(), and reads the
+   * state of the client that update() needs for each message: from its
+   * ChatSession, and from the entries of its connection's info map
+   * that used to hold it.
+   */
+  static void session() throws Exception
+  {
+    ServerFixture fixture = new ServerFixture(CLIENTS[0]);
+    LoopbackClient[] clients = logIn(fixture, CLIENTS[0]);
+    ConnectionToClient c = clients[0].getConnection();
+
+    c.setInfo("loginID", ServerFixture.name(0));
+    c.setInfo("channel", "main");
+    c.setInfo("passwordVerified", Boolean.TRUE);
+
+    time("update(), #getchannel", 100000, i ->
+    {
+      fixture.send(clients[0], "#getchannel");
+      return 0;
+    });
+    time("update(), chat line to " + CLIENTS[0] + " clients", 100000, i ->
+    {
+      fixture.send(clients[0], "hello");
+      return 0;
+    });
+    time("client state, ChatSession", 10000000, i ->
+    {
+      ChatSession session = (ChatSession)c.getInfo("session");
+
+      return session.isLoggedIn()
+        ? session.getLoginID().length() + session.getChannel().length() : 0;
+    });
+    time("client state, info map", 10000000, i ->
+      ((Boolean)c.getInfo("passwordVerified")).booleanValue()
+        ? ((String)c.getInfo("loginID")).length()
+          + ((String)c.getInfo("channel")).length() : 0);
+  }
+
+  /**
+   * Writes chat lines to an object stream, as a connection sends them
+   * to its client, resetting the stream after every message, every
+   * STREAM_RESET_INTERVAL messages as the server does, and never, as
+   * it used to.  Prints the time and bytes each message took, and the
+   * memory the stream holds on to once every round has been written.
+   */
+  static void stream() throws Exception
+  {
+    int[] intervals = {1, EchoServer.STREAM_RESET_INTERVAL, 0};
+    String[] names = {"reset every message", "reset every "
+      + EchoServer.STREAM_RESET_INTERVAL + " messages", "never reset"};
+
+    for (int n = 0; n < intervals.length; n++)
+    {
+      int interval = intervals[n];
+      long heap = usedHeap();
+      CountingStream bytes = new CountingStream();
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      long[] messages = new long[1];
+
+      time("chat line written, " + names[n], STREAM_MESSAGES, i ->
+      {
+        out.writeObject("user" + (i % 10) + "> message " + i);
+        if (interval > 0 && ++messages[0] % interval == 0)
+          out.reset();
+        out.flush();
+        return 0;
+      });
+      report("chat line written, " + names[n],
+        (double)bytes.count / ((rounds + 1) * STREAM_MESSAGES),
+        "bytes/message");
+      report("held by the stream, " + names[n],
+        (usedHeap() - heap) / 1024.0, "KiB");
+      out.close();
+    }
+  }
+
+  /**
+   * Makes every client on the server's list of LISTED_CLIENTS clients
+   * disconnect and log on again, which removes its entry from the list
+   * and adds it back: in the index a StringList keeps, and by going
+   * through the entries as StringList used to, in the list box itself.
+   * The list box is only refilled from the index once per burst, which
+   * needs a display and is not timed.
+   */
+  static void clientList() throws Exception
+  {
+    SortedSet<String> index = StringListIndex.create();
+    java.util.List<String> box = new ArrayList<String>();
+    String[] entries = new String[LISTED_CLIENTS];
+
+    for (int i = 0; i < LISTED_CLIENTS; i++)
+      entries[i] = ServerFixture.name(i) + " - main";
+    index.add("SERVER - main");
+    addToBox(box, "SERVER - main");
+    for (String entry : entries)
+    {
+      index.add(entry);
+      addToBox(box, entry);
+    }
+
+    time("reconnect, index of " + LISTED_CLIENTS, LISTED_CLIENTS, i ->
+    {
+      index.remove(entries[i]);
+      return index.add(entries[i]) ? 1 : 0;
+    });
+    time("reconnect, list box of " + LISTED_CLIENTS, LISTED_CLIENTS, i ->
+    {
+      removeFromBox(box, entries[i]);
+      addToBox(box, entries[i]);
+      return box.size();
+    });
+  }
+
+  /**
+   * Encodes the segments of a drag as the pad sends them, in batches
+   * of #strokes, and one #linedraw command per segment as it used to.
+   */
+  static void strokes() throws Exception
+  {
+    int segments = 128;
+    int[] coords = drag(new Random(13), segments);
+
+    time("#strokes of " + segments + " segments", 100000,
+      i -> StrokeCodec.encode(coords, coords.length).length());
+    time(segments + " #linedraw commands", 100000,
+      i -> linedraws(coords).length());
+    report("#strokes, characters per segment",
+      (double)StrokeCodec.encode(coords, coords.length).length()
+        / segments, "chars");
+    report("#linedraw, characters per segment",
+      (double)linedraws(coords).length() / segments, "chars");
+  }
+
+  /**
+   * Records times spread as latencies are, as the server does for
+   * every command it handles.
+   */
+  static void histogram() throws Exception
+  {
+    Random random = new Random(19);
+    LatencyHistogram latencies = new LatencyHistogram();
+    long[] times = new long[4096];
+
+    for (int i = 0; i < times.length; i++)
+      times[i] = (long)Math.exp(10 + random.nextGaussian() * 2);
+
+    time("LatencyHistogram.record", 1000000, i ->
+    {
+      latencies.record(times[i & (times.length - 1)]);
+      return 0;
+    });
+  }
+
+  /**
+   * Draws PAD_SEGMENTS segments on a pad in #strokes commands, and
+   * builds the #snapshot a newcomer is sent, which used to be sent
+   * every command drawn instead.  The pad keeps at most
+   * Whiteboard.MAX_SEGMENTS of them.
+   */
+  static void pad() throws Exception
+  {
+    int size = StrokeCodec.COORDS_PER_SEGMENT;
+    int[] coords = drag(new Random(11), PAD_SEGMENTS);
+    String[] commands = new String[PAD_SEGMENTS / BATCH];
+    long replayed = 0;
+
+    for (int i = 0; i < commands.length; i++)
+    {
+      int[] batch = Arrays.copyOfRange(coords, i * BATCH * size,
+        (i + 1) * BATCH * size);
+      commands[i] = StrokeCodec.encode(batch, batch.length);
+      replayed += commands[i].length();
+    }
+
+    Whiteboard whiteboard = new Whiteboard();
+    time("Whiteboard.record, #strokes of " + BATCH + " segments",
+      commands.length, i ->
+      {
+        if (i == 0)
+          whiteboard.clear();
+        return whiteboard.record(commands[i]) ? 1 : 0;
+      });
+    report("segments kept of " + PAD_SEGMENTS,
+      whiteboard.getSegmentCount(), "segments");
+
+    time("encodeSnapshot of " + PAD_SEGMENTS + " segments", 1,
+      i -> StrokeCodec.encodeSnapshot(coords, coords.length).length());
+    report("#snapshot of " + PAD_SEGMENTS + " segments",
+      StrokeCodec.encodeSnapshot(coords, coords.length).length(), "chars");
+    report("#strokes of " + PAD_SEGMENTS + " segments, replayed",
+      replayed, "chars");
+
+    // A segment away from the drag, so that it is not merged into it
+    int[] dot = {-5000, -5000, -4999, -5000};
+    time("getSnapshot of the pad kept, built", 1, i ->
+    {
+      whiteboard.add(dot, dot.length);
+      return whiteboard.getSnapshot().length();
+    });
+    time("getSnapshot of the pad kept, for a newcomer", 1000000,
+      i -> whiteboard.getSnapshot().length());
+    report("#snapshot of the pad kept",
+      whiteboard.getSnapshot().length(), "chars");
+  }
+
+  /**
+   * Merges the roster frames a client that falls behind is sent, alone
+   * and into a frame queued ahead of a backlog of other messages.
+   */
+  static void roster() throws Exception
+  {
+    String first = "#roster\n+alice - main\n+bob - main\n-carol - main";
+    String second = "#roster\n-alice - main\n+dave - main\n+erin - x";
+    String[] frames = {"#roster\n+alice - main", "#roster\n-alice - main"};
+    OutboundQueue queue = new OutboundQueue(null, null, drain -> {},
+      BACKLOG + 1, OverflowPolicy.COALESCE_ROSTER);
+
+    queue.add(frames[0]);
+    for (int i = 0; i < BACKLOG; i++)
+      queue.add("m" + i);
+
+    time("RosterStage.merge of two deltas", 1000000,
+      i -> RosterStage.merge(first, second).length());
+    time("frame merged, " + BACKLOG + " messages queued", 1000000, i ->
+    {
+      queue.add(frames[i & 1]);
+      return queue.getDepth();
+    });
+  }
+
+  /**
+   * Finds a logged on client by going through every connection, as the
+   * server's getClient used to.
+   *
+   * @param fixture The server.
+   * @param loginID The loginID of the client.
+   */
+  static ConnectionToClient scan(ServerFixture fixture, String loginID)
+  {
+    for (Thread thread : fixture.getClientConnections())
+    {
+      ConnectionToClient c = (ConnectionToClient)thread;
+      ChatSession session = (ChatSession)c.getInfo("session");
+
+      if (session != null && loginID.equals(session.getLoginID()))
+        return c;
+    }
+    return null;
+  }
+
+  /**
+   * Counts the members of a channel by going through every client, as
+   * the server's sendChannelMessage used to.
+   *
+   * @param fixture The server.
+   * @param channel The channel.
+   */
+  static long scanChannel(ServerFixture fixture, String channel)
+  {
+    long found = 0;
+
+    for (Thread thread : fixture.getClientConnections())
+    {
+      ChatSession session =
+        (ChatSession)((ConnectionToClient)thread).getInfo("session");
+
+      if (session != null && channel.equals(session.getChannel()))
+        found++;
+    }
+    return found;
+  }
+
+  /**
+   * Builds a public message for every logged on client not blocking its
+   * sender, going through every connection as the server's #pub used
+   * to.  Nobody blocks anybody, as in the timed server.
+   *
+   * @param fixture The server.
+   * @param sender The loginID of the sender.
+   * @param text The message.
+   * @return The total length of the messages built.
+   */
+  static long scanRecipients(ServerFixture fixture, String sender,
+    String text)
+  {
+    Vector<String> blockedUsers = new Vector<String>();
+    long length = 0;
+
+    for (Thread thread : fixture.getClientConnections())
+    {
+      ChatSession session =
+        (ChatSession)((ConnectionToClient)thread).getInfo("session");
+
+      if (!blockedUsers.contains(sender)
+        && session != null && session.isLoggedIn())
+      {
+        length += ("PUBLIC MESSAGE from " + sender + "> " + text).length();
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Sends CONTENDED_MESSAGES private messages from a number of threads
+   * at once, and returns the time each took in the fastest round,
+   * until every message had been written.
+   *
+   * @param fixture The server, with 2 * SENDERS clients logged on.
+   * @param clients The clients.
+   * @param senders The threads.
+   * @param threads The number of threads sending.
+   * @param shared Indicates the threads take one lock to send.
+   * @return The time per message, in nanoseconds.
+   */
+  static double sendConcurrently(ServerFixture fixture,
+    LoopbackClient[] clients, ExecutorService senders, int threads,
+    boolean shared) throws Exception
+  {
+    Collection<OutboundQueue> queues =
+      fixture.server.getOutboundQueues().values();
+    List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+    Object sharedLock = new Object();
+    int each = CONTENDED_MESSAGES / threads;
+    long best = Long.MAX_VALUE;
+
+    for (int t = 0; t < threads; t++)
+    {
+      LoopbackClient sender = clients[t];
+      String line = "#private " + ServerFixture.name(t + SENDERS) + " hi";
+      Object lock = shared ? sharedLock : new Object();
+
+      tasks.add(() ->
+      {
+        for (int i = 0; i < each; i++)
+        {
+          synchronized (lock)
+          {
+            fixture.send(sender, line);
+          }
+        }
+        return null;
+      });
+    }
+
+    for (int round = -1; round < rounds; round++)
+    {
+      long start = System.nanoTime();
+
+      for (Future<Object> task : senders.invokeAll(tasks))
+        task.get();
+      for (OutboundQueue queue : queues)
+      {
+        if (!queue.awaitDrained(TIMEOUT))
+          throw new IllegalStateException("#private not written");
+      }
+
+      // Round -1 is the warm-up
+      if (round >= 0)
+        best = Math.min(best, System.nanoTime() - start);
+    }
+    return (double)best / (each * threads);
+  }
+
+  /**
+   * Finds the handler of a command by comparing it with every verb in
+   * turn, as the server's update used to.
+   *
+   * @param command The command.
+   * @return The number of the handler, or -1 if it has none.
+   */
+  static int chain(String command)
+  {
+    if (command.startsWith("#whoison"))
+      return 0;
+    if (command.startsWith("#getchannel"))
+      return 1;
+    if (command.startsWith("#private"))
+      return 2;
+    if (command.startsWith("#channel"))
+      return 3;
+    if (command.startsWith("#nochannel"))
+      return 4;
+    if (command.startsWith("#pub"))
+      return 5;
+    if (command.startsWith("#fwd"))
+      return 6;
+    if (command.startsWith("#unfwd"))
+      return 7;
+    if (command.startsWith("#block"))
+      return 8;
+    if (command.startsWith("#unblock"))
+      return 9;
+    if (command.startsWith("#whoiblock"))
+      return 10;
+    if (command.startsWith("#whoblocksme"))
+      return 11;
+    if (command.startsWith("#linedraw"))
+      return 12;
+    return -1;
+  }
+
+  /**
+   * Counts the blockers of a user by going through every client's
+   * vector of blocked users, as #whoblocksme used to.
+   *
+   * @param blockedUsers The users each client blocks.
+   * @param user The loginID of the user.
+   */
+  static long scanBlockers(List<Vector<String>> blockedUsers, String user)
+  {
+    long blockers = 0;
+
+    for (Vector<String> blocked : blockedUsers)
+    {
+      if (blocked.contains(user))
+        blockers++;
+    }
+    return blockers;
+  }
+
+  /**
+   * Returns the memory taken by the objects that are still referenced,
+   * in bytes.
+   */
+  static long usedHeap() throws InterruptedException
+  {
+    Runtime runtime = Runtime.getRuntime();
+
+    for (int i = 0; i < 3; i++)
+    {
+      System.gc();
+      Thread.sleep(50);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Removes a string from a list box by going through its items, as
+   * StringList.removeFromList used to.
+   *
+   * @param box The items of the list box.
+   * @param str The string.
+   */
+  static void removeFromBox(java.util.List<String> box, String str)
+  {
+    for (int i = 0; i < box.size(); i++)
+      if (box.get(i).equals(str))
+        box.remove(i);
+  }
+
+  /**
+   * Adds a string to a list box before the first item that comes
+   * after it, as StringList.addToList used to.
+   *
+   * @param box The items of the list box.
+   * @param str The string.
+   */
+  static void addToBox(java.util.List<String> box, String str)
+  {
+    if (str.startsWith("SERVER - "))
+    {
+      box.add(0, str);
+      return;
+    }
+    for (int i = 1; i < box.size(); i++)
+    {
+      if (box.get(i).compareTo(str) > 0)
+      {
+        box.add(i, str);
+        return;
+      }
+    }
+    box.add(str);
+  }
+
+  /**
+   * Checks a password by reading the password file a byte at a time
+   * until the account is found, as the server's isValidPwd used to.
+   *
+   * @param file The path of the password file.
+   * @param loginID The loginID of the account.
+   * @param password The password.
+   */
+  static boolean readPasswordFile(String file, String loginID,
+    String password) throws IOException
+  {
+    try (FileInputStream input = new FileInputStream(file))
+    {
+      String line = "";
+      int character;
+
+      while ((character = input.read()) != -1)
+      {
+        if (character == '\n')
+        {
+          if (line.substring(0, line.indexOf(" ")).equals(loginID)
+             && line.substring(line.indexOf(" ") + 1).equals(password))
+          {
+            return true;
+          }
+          line = "";
+        }
+        else if (character != '\r')
+        {
+          line = line + (char)character;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Makes loginIDs to look up, of which half are logged on.
+   *
+   * @param random The source of the loginIDs.
+   * @param clients The number of clients logged on.
+   */
+  static String[] lookups(Random random, int clients)
+  {
+    String[] lookups = new String[4096];
+
+    for (int i = 0; i < lookups.length; i++)
+      lookups[i] = ServerFixture.name(random.nextInt(2 * clients));
+    return lookups;
+  }
+
+  /**
+   * Makes the #linedraw commands a pad used to send for segments, one
+   * after the other.
+   *
+   * @param coords The segments.
+   */
+  static String linedraws(int[] coords)
+  {
+    StringBuilder commands = new StringBuilder();
+
+    for (int i = 0; i < coords.length; i += 4)
+    {
+      commands.append("#linedraw").append(coords[i]).append(',')
+        .append(coords[i + 1]).append(',').append(coords[i + 2])
+        .append(',').append(coords[i + 3]);
+    }
+    return commands.toString();
+  }
+
+  /**
+   * Makes the segments of a drag of random steps.
+   *
+   * @param random The source of the steps.
+   * @param segments The number of segments.
+   */
+  static int[] drag(Random random, int segments)
+  {
+    int[] coords = new int[segments * StrokeCodec.COORDS_PER_SEGMENT];
+    int x = random.nextInt(800);
+    int y = random.nextInt(600);
+
+    for (int i = 0; i < coords.length; i += 4)
+    {
+      coords[i] = x;
+      coords[i + 1] = y;
+      x += random.nextInt(9) - 4;
+      y += random.nextInt(9) - 4;
+      coords[i + 2] = x;
+      coords[i + 3] = y;
+    }
+    return coords;
+  }
+
+  //Inner classes ***************************************************
+
+  /**
+   * A stream that only counts the bytes written to it.
+   */
+  static class CountingStream extends OutputStream
+  {
+    long count = 0;
+
+    public void write(int b)
+    {
+      count++;
+    }
+
+    public void write(byte[] b, int off, int len)
+    {
+      count += len;
+    }
+  }
+
+  /**
+   * A suite of operations to time.
+   */
+  interface Suite
+  {
+    /**
+     * Times the operations of the suite and prints the results.
+     */
+    void run() throws Exception;
+  }
+
+  /**
+   * An operation to time.
+   */
+  interface Operation
+  {
+    /**
+     * Runs the operation once.
+     *
+     * @param i The number of the run.
+     * @return A value that depends on the work done.
+     */
+    long run(int i) throws Exception;
+  }
+}
+//End of Benchmark class
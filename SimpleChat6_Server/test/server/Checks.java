@@ -0,0 +1,83 @@
+package server;
+
+/**
+ * This class holds the assertions used by the checks of the server's
+ * classes.  The checks are plain programs run by the test target of
+ * the build: a check that fails throws an AssertionError, which ends
+ * the program with a stack trace and fails the build.
+ */
+public class Checks
+{
+  //Class variables *************************************************
+
+  /**
+   * The number of assertions that have passed.
+   */
+  private static int passed = 0;
+
+  //Class methods ***************************************************
+
+  /**
+   * Runs the assertions of a check and ends the program, with a
+   * status of 1 if one of them failed.  The program is ended even if
+   * the check left threads running, as a server's connections do.
+   *
+   * @param name The name of the check.
+   * @param body The assertions.
+   */
+  public static void run(String name, Body body)
+  {
+    try
+    {
+      body.run();
+    }
+    catch (Throwable e)
+    {
+      e.printStackTrace();
+      System.exit(1);
+    }
+    System.out.println(name + ": " + passed + " assertions passed");
+    System.exit(0);
+  }
+
+  /**
+   * Verifies a condition.
+   *
+   * @param condition The condition.
+   * @param what What is being verified, for the failure message.
+   */
+  public static void check(boolean condition, String what)
+  {
+    if (!condition)
+      throw new AssertionError(what);
+    passed++;
+  }
+
+  /**
+   * Verifies a value.
+   *
+   * @param expected The value expected.
+   * @param actual The value found.
+   * @param what What is being verified, for the failure message.
+   */
+  public static void checkEquals(Object expected, Object actual, String what)
+  {
+    if (expected == null ? actual != null : !expected.equals(actual))
+    {
+      throw new AssertionError(what + ": expected <" + expected
+        + "> but was <" + actual + ">");
+    }
+    passed++;
+  }
+
+  //Inner classes ***************************************************
+
+  /**
+   * The assertions of a check.
+   */
+  public interface Body
+  {
+    void run() throws Exception;
+  }
+}
+//End of Checks class
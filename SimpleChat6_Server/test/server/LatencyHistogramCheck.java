@@ -0,0 +1,103 @@
+package server;
+
+import java.util.*;
+import static server.Checks.*;
+
+/**
+ * This class checks the buckets of LatencyHistogram: every time falls
+ * in a bucket whose bounds contain it, the buckets are contiguous, and
+ * a percentile is never below the exact value nor more than a bucket
+ * width above it.
+ */
+public class LatencyHistogramCheck
+{
+  public static void main(String[] args)
+  {
+    run("LatencyHistogramCheck", () ->
+    {
+      checkBucketBounds();
+      checkPercentiles();
+      checkEmpty();
+    });
+  }
+
+  /**
+   * Each bucket starts right after the one before it ends, and a time
+   * at either end of a bucket is put in that bucket.
+   */
+  static void checkBucketBounds()
+  {
+    long lower = 0;
+
+    for (int i = 0; i < LatencyHistogram.BUCKETS; i++)
+    {
+      long upper = LatencyHistogram.upperBound(i);
+
+      check(upper >= lower, "bucket " + i + " is not empty");
+      checkEquals(i, LatencyHistogram.indexFor(lower),
+        "bucket of " + lower);
+      checkEquals(i, LatencyHistogram.indexFor(upper),
+        "bucket of " + upper);
+
+      // The width is at most 1/16 of the values in the bucket
+      if (i >= LatencyHistogram.SUB_BUCKETS)
+      {
+        check((upper - lower + 1) * LatencyHistogram.SUB_BUCKETS <= lower,
+          "width of bucket " + i);
+      }
+
+      if (upper == Long.MAX_VALUE)
+        return;
+      lower = upper + 1;
+    }
+    throw new AssertionError("the buckets do not reach Long.MAX_VALUE");
+  }
+
+  /**
+   * The percentiles of random times are close above the exact ones.
+   */
+  static void checkPercentiles()
+  {
+    Random random = new Random(7);
+    LatencyHistogram histogram = new LatencyHistogram();
+    long[] times = new long[100000];
+
+    for (int i = 0; i < times.length; i++)
+    {
+      // Spread over several powers of two, as latencies are
+      times[i] = (long)Math.exp(7 + random.nextGaussian() * 2);
+      histogram.record(times[i]);
+    }
+    Arrays.sort(times);
+
+    checkEquals((long)times.length, histogram.getCount(), "count");
+    checkEquals(times[times.length - 1], histogram.getMax(), "max");
+
+    for (double percentile : new double[] {50, 90, 99, 99.9, 100})
+    {
+      int rank = (int)Math.ceil(times.length * percentile / 100) - 1;
+      long exact = times[rank];
+      long reported = histogram.getPercentile(percentile);
+
+      check(reported >= exact, "p" + percentile + " below " + exact);
+      check(reported <= exact + exact / LatencyHistogram.SUB_BUCKETS + 1,
+        "p" + percentile + " = " + reported + " too far above " + exact);
+    }
+  }
+
+  /**
+   * An empty histogram reports 0, and negative times count as 0.
+   */
+  static void checkEmpty()
+  {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    checkEquals(0L, histogram.getPercentile(50), "empty percentile");
+    checkEquals(0L, histogram.getMean(), "empty mean");
+
+    histogram.record(-5);
+    checkEquals(0L, histogram.getMax(), "negative time");
+    checkEquals(1L, histogram.getCount(), "negative time counted");
+  }
+}
+//End of LatencyHistogramCheck class
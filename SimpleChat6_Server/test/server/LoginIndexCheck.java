@@ -0,0 +1,61 @@
+package server;
+
+import ocsf.server.*;
+import static server.Checks.*;
+
+/**
+ * This class checks that the server finds a logged on client by its
+ * loginID, and that the index it looks the client up in follows the
+ * client's logins and disconnections.
+ */
+public class LoginIndexCheck
+{
+  public static void main(String[] args)
+  {
+    run("LoginIndexCheck", () ->
+    {
+      ServerFixture fixture = new ServerFixture(4);
+      EchoServer server = fixture.server;
+
+      LoopbackClient alice = fixture.login("user0", true);
+      LoopbackClient bob = fixture.login("user1", true);
+
+      checkEquals(alice.getConnection(), server.getClient("user0"),
+        "client found by loginID");
+      checkEquals(bob.getConnection(), server.getClient("user1"),
+        "second client found by loginID");
+      checkEquals(null, server.getClient("user2"),
+        "client not logged on");
+      checkEquals(null, server.getClient(null), "no loginID");
+
+      fixture.send(alice, "#private user1 hello");
+      check(fixture.await(bob, "PRIVATE MESSAGE from user0> hello", 5000),
+        "private message delivered to the client found");
+
+      // A second login with the same loginID is turned away
+      LoopbackClient twin = fixture.login("user0", true);
+      check(fixture.await(twin,
+          "Login ID is already logged on.\nEnter LoginID:", 5000),
+        "duplicate login rejected");
+      checkEquals(alice.getConnection(), server.getClient("user0"),
+        "index unchanged by duplicate login");
+      fixture.disconnect(twin);
+      checkEquals(alice.getConnection(), server.getClient("user0"),
+        "index unchanged by disconnection of duplicate");
+
+      fixture.disconnect(alice);
+      checkEquals(null, server.getClient("user0"),
+        "client removed on disconnection");
+
+      LoopbackClient again = fixture.login("user0", true);
+      checkEquals(again.getConnection(), server.getClient("user0"),
+        "client found after logging in again");
+
+      // The old connection reporting its end late leaves the new one
+      fixture.send(alice, ObservableServer.CLIENT_DISCONNECTED);
+      checkEquals(again.getConnection(), server.getClient("user0"),
+        "index unchanged by late disconnection");
+    });
+  }
+}
+//End of LoginIndexCheck class
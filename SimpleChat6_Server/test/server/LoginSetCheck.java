@@ -0,0 +1,99 @@
+package server;
+
+import java.util.*;
+import static server.Checks.*;
+
+/**
+ * This class checks LoginSet against a HashSet given the same
+ * additions and removals, including the removals that shift the
+ * entries of a probe chain back.
+ */
+public class LoginSetCheck
+{
+  public static void main(String[] args)
+  {
+    run("LoginSetCheck", () ->
+    {
+      checkEmpty();
+      checkWithWithout();
+      checkAgainstHashSet();
+    });
+  }
+
+  /**
+   * The empty set contains nothing.
+   */
+  static void checkEmpty()
+  {
+    checkEquals(0, LoginSet.EMPTY.size(), "empty size");
+    check(!LoginSet.EMPTY.contains("alice"), "empty contains");
+    check(!LoginSet.EMPTY.contains(null), "empty contains null");
+    check(!LoginSet.EMPTY.iterator().hasNext(), "empty iterator");
+  }
+
+  /**
+   * Adding and removing build new sets and leave the old ones alone.
+   */
+  static void checkWithWithout()
+  {
+    LoginSet one = LoginSet.EMPTY.with("alice");
+    LoginSet two = one.with("bob");
+
+    check(one.contains("alice") && !one.contains("bob"), "one");
+    check(two.contains("alice") && two.contains("bob"), "two");
+    checkEquals(2, two.size(), "two size");
+    check(two.with("bob") == two, "adding a member gives the same set");
+    check(two.without("carol") == two,
+      "removing a stranger gives the same set");
+
+    // A loginID that is not interned is still found
+    check(two.contains(new String("bob")), "lookup by equals");
+
+    LoginSet back = two.without("alice");
+    check(!back.contains("alice") && back.contains("bob"), "without");
+    check(two.contains("alice"), "old set unchanged");
+  }
+
+  /**
+   * Random additions and removals give the same set as a HashSet.
+   * The names are drawn from a small pool so that removals hit
+   * members often.
+   */
+  static void checkAgainstHashSet()
+  {
+    Random random = new Random(42);
+    Set<String> expected = new HashSet<String>();
+    LoginSet actual = LoginSet.EMPTY;
+
+    for (int i = 0; i < 20000; i++)
+    {
+      String name = "user" + random.nextInt(300);
+
+      if (random.nextInt(3) == 0)
+      {
+        expected.remove(name);
+        actual = actual.without(name);
+      }
+      else
+      {
+        expected.add(name);
+        actual = actual.with(name);
+      }
+
+      if (i % 500 == 0)
+      {
+        checkEquals(expected, new HashSet<String>(actual),
+          "members after " + i + " changes");
+      }
+    }
+
+    checkEquals(expected.size(), actual.size(), "size");
+    for (int i = 0; i < 300; i++)
+    {
+      String name = "user" + i;
+      checkEquals(expected.contains(name), actual.contains(name),
+        "contains " + name);
+    }
+  }
+}
+//End of LoginSetCheck class
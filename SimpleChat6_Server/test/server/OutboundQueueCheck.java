@@ -0,0 +1,303 @@
+package server;
+
+import java.util.*;
+import ocsf.server.*;
+import static server.Checks.*;
+
+/**
+ * This class checks what each overflow policy of OutboundQueue does
+ * when the queue is full, and how RosterStage merges frames.
+ *
+ * The queues write to clients connected through memory, so that what
+ * they write can be read back, but their writer only runs when the
+ * check lets it: the messages are all added first, as they would be
+ * for a client that is not reading, and then drained.
+ */
+public class OutboundQueueCheck
+{
+  //Class variables *************************************************
+
+  /**
+   * The time the server may take to close a connection, in
+   * milliseconds.
+   */
+  static final int TIMEOUT = 5000;
+
+  /**
+   * The message the server greets every client with.
+   */
+  static final String GREETING = "Enter your login ID:";
+
+  /**
+   * The drains the queues have asked to run.
+   */
+  private static final List<Runnable> heldDrains = new ArrayList<Runnable>();
+
+  //Class methods ***************************************************
+
+  public static void main(String[] args)
+  {
+    run("OutboundQueueCheck", () ->
+    {
+      ServerFixture fixture = new ServerFixture(0);
+
+      checkMerge();
+      checkDropOldest(fixture);
+      checkCoalesceRoster(fixture);
+      checkCoalesceRosterOrder(fixture);
+      checkCoalesceRosterSingleSlot(fixture);
+      checkDisconnect(fixture);
+      checkStalledWriters();
+      checkGoodbye();
+    });
+  }
+
+  /**
+   * Merged frames have the effect of the two frames in order.
+   */
+  static void checkMerge()
+  {
+    checkEquals("#roster\n-a - main\n-b - main\n+c - x",
+      RosterStage.merge("#roster\n+a - main\n-b - main",
+        "#roster\n-a - main\n+c - x"), "delta after delta");
+    checkEquals("#rostersnap\nSERVER - main\nc - x",
+      RosterStage.merge("#rostersnap\nSERVER - main\nb - main",
+        "#roster\n-b - main\n+c - x"), "delta after snapshot");
+    checkEquals("#rostersnap\nz - main",
+      RosterStage.merge("#roster\n+a - main", "#rostersnap\nz - main"),
+      "snapshot after delta");
+    check(RosterStage.isFrame("#rostersnap"), "empty snapshot is a frame");
+    check(!RosterStage.isFrame("#rosterx"), "#rosterx is not a frame");
+  }
+
+  /**
+   * DROP_OLDEST keeps the newest messages.
+   */
+  static void checkDropOldest(ServerFixture fixture) throws Exception
+  {
+    LoopbackClient client = fixture.connect(true);
+    OutboundQueue queue =
+      queue(fixture, client, 3, OverflowPolicy.DROP_OLDEST);
+
+    for (int i = 1; i <= 5; i++)
+      queue.add("m" + i);
+    checkEquals(3, queue.getDepth(), "DROP_OLDEST depth");
+    checkEquals(2L, queue.getDropped(), "DROP_OLDEST dropped");
+
+    runDrains();
+    checkEquals(Arrays.asList("m3", "m4", "m5"), sent(client),
+      "DROP_OLDEST sends the newest");
+    checkEquals(3L, queue.getSent(), "DROP_OLDEST sent");
+    checkEquals(3, queue.getHighWaterMark(), "DROP_OLDEST high water");
+  }
+
+  /**
+   * COALESCE_ROSTER keeps a single frame holding every change and drops
+   * the oldest messages that are not frames.
+   */
+  static void checkCoalesceRoster(ServerFixture fixture) throws Exception
+  {
+    LoopbackClient client = fixture.connect(true);
+    OutboundQueue queue =
+      queue(fixture, client, 3, OverflowPolicy.COALESCE_ROSTER);
+
+    queue.add("m1");
+    queue.add("#roster\n+a");
+    queue.add("m2");
+    queue.add("#roster\n+b");
+    queue.add("m3");
+    queue.add("m4");
+    checkEquals(3, queue.getDepth(), "COALESCE_ROSTER depth");
+    checkEquals(2L, queue.getDropped(), "COALESCE_ROSTER dropped");
+    checkEquals(1L, queue.getCoalesced(), "COALESCE_ROSTER coalesced");
+
+    runDrains();
+    checkEquals(Arrays.asList("#roster\n+a\n+b", "m3", "m4"),
+      sent(client), "COALESCE_ROSTER keeps the merged frame");
+  }
+
+  /**
+   * A frame is merged into the queued frame where that one stands, and
+   * a frame queued after the writer has taken the last one is sent on
+   * its own.
+   */
+  static void checkCoalesceRosterOrder(ServerFixture fixture)
+    throws Exception
+  {
+    LoopbackClient client = fixture.connect(true);
+    OutboundQueue queue =
+      queue(fixture, client, 10, OverflowPolicy.COALESCE_ROSTER);
+
+    queue.add("m1");
+    queue.add("#roster\n+a");
+    queue.add("m2");
+    queue.add("#roster\n+b");
+    checkEquals(3, queue.getDepth(), "merged frame depth");
+
+    runDrains();
+    queue.add("#roster\n+c");
+    runDrains();
+    checkEquals(Arrays.asList("m1", "#roster\n+a\n+b", "m2", "#roster\n+c"),
+      sent(client), "merged frame keeps its place");
+    checkEquals(1L, queue.getCoalesced(), "frame after a drain not merged");
+  }
+
+  /**
+   * A queue with room for one frame drops the messages that would push
+   * the frame out.
+   */
+  static void checkCoalesceRosterSingleSlot(ServerFixture fixture)
+    throws Exception
+  {
+    LoopbackClient client = fixture.connect(true);
+    OutboundQueue queue =
+      queue(fixture, client, 1, OverflowPolicy.COALESCE_ROSTER);
+
+    queue.add("#rostersnap\nx");
+    queue.add("hello");
+    queue.add("#roster\n+y");
+    checkEquals(1L, queue.getDropped(), "single slot dropped");
+
+    runDrains();
+    checkEquals(Arrays.asList("#rostersnap\nx\ny"), sent(client),
+      "single slot keeps the frame");
+  }
+
+  /**
+   * DISCONNECT drops everything and expels the client.
+   */
+  static void checkDisconnect(ServerFixture fixture) throws Exception
+  {
+    LoopbackClient client = fixture.connect(true);
+    OutboundQueue queue =
+      queue(fixture, client, 2, OverflowPolicy.DISCONNECT);
+
+    queue.add("m1");
+    queue.add("m2");
+    queue.add("m3");
+    checkEquals(0, queue.getDepth(), "DISCONNECT depth");
+    checkEquals(3L, queue.getDropped(), "DISCONNECT dropped");
+
+    queue.add("m4");
+    checkEquals(0, queue.getDepth(), "DISCONNECT ignores later messages");
+
+    runDrains();
+    check(closed(client), "DISCONNECT closes the connection");
+    checkEquals(Collections.emptyList(), sent(client),
+      "DISCONNECT sends nothing");
+  }
+
+  /**
+   * Clients that stop reading, more of them than there are writer
+   * threads, are expelled once their writes have taken longer than the
+   * write timeout, and the others are sent their messages meanwhile.
+   */
+  static void checkStalledWriters() throws Exception
+  {
+    int stalled = EchoServer.WRITER_THREADS + 1;
+    ServerFixture fixture = new ServerFixture(stalled + 1);
+    EchoServer server = fixture.server;
+    LoopbackClient reader = fixture.login(ServerFixture.name(0), true);
+    List<LoopbackClient> stalledClients = new ArrayList<LoopbackClient>();
+
+    server.setWriteTimeout(500);
+    for (int i = 1; i <= stalled; i++)
+    {
+      LoopbackClient client = fixture.login(ServerFixture.name(i), true);
+      check(fixture.await(client, "#noecho", TIMEOUT), "stalled logged in");
+      client.setStalled(true);
+      stalledClients.add(client);
+    }
+
+    // Every writer thread is soon blocked on a stalled client
+    fixture.send(reader, "hello");
+    check(fixture.await(reader, "user0> hello", TIMEOUT),
+      "reader sent its messages while the others are stalled");
+
+    for (int i = 0; i < stalled; i++)
+    {
+      check(closed(stalledClients.get(i)), "stalled client expelled");
+      checkEquals(null, server.getClient(ServerFixture.name(i + 1)),
+        "stalled client logged off");
+    }
+
+    fixture.send(reader, "again");
+    check(fixture.await(reader, "user0> again", TIMEOUT),
+      "reader sent its messages once the others are expelled");
+  }
+
+  /**
+   * The notices sent when the server closes have been written by the
+   * time the connections are closed.
+   */
+  static void checkGoodbye() throws Exception
+  {
+    ServerFixture fixture = new ServerFixture(2);
+    LoopbackClient alice = fixture.login(ServerFixture.name(0), true);
+    LoopbackClient bob = fixture.login(ServerFixture.name(1), true);
+
+    check(fixture.await(bob, "#noecho", TIMEOUT), "logged in");
+    fixture.server.handleMessageFromServerUI("#close");
+
+    for (LoopbackClient client : Arrays.asList(alice, bob))
+    {
+      List<Object> messages = client.getMessages();
+      int notice = messages.indexOf("Server is shutting down.");
+
+      check(notice >= 0, "shutdown notice written before #close returns");
+      checkEquals("You will be disconnected.", messages.get(notice + 1),
+        "disconnection notice written next");
+      check(closed(client), "connection closed");
+    }
+  }
+
+  /**
+   * Makes an outbound queue for a client whose writer only runs in
+   * runDrains.
+   */
+  static OutboundQueue queue(ServerFixture fixture, LoopbackClient client,
+    int capacity, OverflowPolicy policy)
+  {
+    return new OutboundQueue(client.getConnection(), fixture.server,
+      heldDrains::add, capacity, policy);
+  }
+
+  /**
+   * Runs the drains the queues asked for, and any they ask for in turn.
+   */
+  static void runDrains()
+  {
+    while (!heldDrains.isEmpty())
+      heldDrains.remove(0).run();
+  }
+
+  /**
+   * Returns the messages written to a client after its greeting.
+   */
+  static List<Object> sent(LoopbackClient client) throws Exception
+  {
+    List<Object> messages = client.getMessages();
+
+    checkEquals(GREETING, messages.get(0), "greeting");
+    return messages.subList(1, messages.size());
+  }
+
+  /**
+   * Waits for the server to close a client's connection.
+   *
+   * @return false if it was not closed in time.
+   */
+  static boolean closed(LoopbackClient client) throws Exception
+  {
+    long deadline = System.currentTimeMillis() + TIMEOUT;
+
+    while (!client.isClosed())
+    {
+      if (System.currentTimeMillis() > deadline)
+        return false;
+      Thread.sleep(5);
+    }
+    return true;
+  }
+}
+//End of OutboundQueueCheck class
@@ -0,0 +1,149 @@
+package server;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import static server.Checks.*;
+
+/**
+ * This class checks that RegistryWriter recovers the password file:
+ * a torn last record is cut off before the next one is appended, a
+ * write that fails is reported and does not keep the next ones from
+ * being written, and accounts registered together all reach the file.
+ */
+public class RegistryWriterCheck
+{
+  //Class variables *************************************************
+
+  /**
+   * The time an append may take, in seconds.
+   */
+  static final int TIMEOUT = 10;
+
+  //Class methods ***************************************************
+
+  public static void main(String[] args)
+  {
+    run("RegistryWriterCheck", () ->
+    {
+      ExecutorService writer = Executors.newSingleThreadExecutor();
+
+      checkTornRecord(writer);
+      checkFailedWrite(writer);
+      checkConcurrentAppends(writer);
+    });
+  }
+
+  /**
+   * A last record without a line break is cut off.
+   */
+  static void checkTornRecord(Executor writer) throws Exception
+  {
+    Path file = Files.createTempFile("passwords", ".txt");
+
+    try
+    {
+      write(file, "bob pw\r\nhalf");
+      RegistryWriter registry = new RegistryWriter(file.toString(), writer);
+
+      registry.append("carol", "x").get(TIMEOUT, TimeUnit.SECONDS);
+      registry.close();
+      checkEquals("bob pw\r\ncarol x\r\n", read(file), "torn record cut off");
+
+      // The accounts are read back, and the torn one is gone
+      CredentialStore store = new CredentialStore(file.toString(), writer);
+      check(store.isValidPwd("bob", "pw"), "bob read back");
+      check(store.isValidPwd("carol", "x"), "carol read back");
+      check(!store.isLoginUsed("half"), "torn record not an account");
+      store.close();
+    }
+    finally
+    {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * A write to a missing file fails its future, and the next append
+   * opens the file again once it exists.
+   */
+  static void checkFailedWrite(Executor writer) throws Exception
+  {
+    Path file = Files.createTempFile("passwords", ".txt");
+    Files.delete(file);
+
+    try
+    {
+      RegistryWriter registry = new RegistryWriter(file.toString(), writer);
+
+      try
+      {
+        registry.append("dave", "d").get(TIMEOUT, TimeUnit.SECONDS);
+        throw new AssertionError("wrote to a missing file");
+      }
+      catch (ExecutionException e)
+      {
+        check(e.getCause() instanceof IOException, "failure is an IOException");
+      }
+
+      write(file, "");
+      registry.append("erin", "e").get(TIMEOUT, TimeUnit.SECONDS);
+      registry.close();
+      checkEquals("erin e\r\n", read(file), "written after a failure");
+    }
+    finally
+    {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  /**
+   * Accounts registered from many threads at once all reach the file,
+   * each on a line of its own.
+   */
+  static void checkConcurrentAppends(Executor writer) throws Exception
+  {
+    Path file = Files.createTempFile("passwords", ".txt");
+    ExecutorService clients = Executors.newFixedThreadPool(8);
+
+    try
+    {
+      RegistryWriter registry = new RegistryWriter(file.toString(), writer);
+      List<Future<CompletableFuture<Void>>> appends =
+        new ArrayList<Future<CompletableFuture<Void>>>();
+
+      for (int i = 0; i < 500; i++)
+      {
+        String loginID = "user" + i;
+        appends.add(clients.submit(() -> registry.append(loginID, "pw")));
+      }
+      for (Future<CompletableFuture<Void>> append : appends)
+        append.get(TIMEOUT, TimeUnit.SECONDS).get(TIMEOUT, TimeUnit.SECONDS);
+      registry.close();
+
+      Set<String> lines = new HashSet<String>
+        (Arrays.asList(read(file).split("\r\n")));
+      checkEquals(500, lines.size(), "one line per account");
+      for (int i = 0; i < 500; i++)
+        check(lines.contains("user" + i + " pw"), "line of user" + i);
+    }
+    finally
+    {
+      clients.shutdown();
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private static void write(Path file, String text) throws IOException
+  {
+    Files.write(file, text.getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  private static String read(Path file) throws IOException
+  {
+    return new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+  }
+}
+//End of RegistryWriterCheck class
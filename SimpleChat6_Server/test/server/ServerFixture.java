@@ -0,0 +1,198 @@
+package server;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import ocsf.server.*;
+
+/**
+ * This class is a server whose clients are connected through memory,
+ * for the checks and benchmarks.  Its password file holds the accounts
+ * user0, user1 and so on, all with the same password.
+ *
+ * What a client sends is passed to the server on the caller's thread,
+ * as the client's connection would pass it on its own.  The end of a
+ * connection is passed on by the thread that closes it, as the
+ * server's ObservableOriginatorServer would.
+ */
+class ServerFixture
+{
+  //Class variables *************************************************
+
+  /**
+   * The password of every account.
+   */
+  static final String PASSWORD = "pw";
+
+  //Instance variables **********************************************
+
+  /**
+   * The server.
+   */
+  final EchoServer server;
+
+  /**
+   * The group of the threads of the clients' connections.
+   */
+  private final ThreadGroup clients = new ThreadGroup("fixture-clients");
+
+  /**
+   * The server the clients' connections report their end to.
+   */
+  private final AbstractServer connections = new AbstractServer(0)
+  {
+    protected void handleMessageFromClient
+      (Object msg, ConnectionToClient client) {}
+
+    protected void clientDisconnected(ConnectionToClient client)
+    {
+      server.update(null,
+        new OriginatorMessage(client, ObservableServer.CLIENT_DISCONNECTED));
+    }
+
+    protected void clientException
+      (ConnectionToClient client, Throwable exception)
+    {
+      server.update(null, new OriginatorMessage(client,
+        ObservableServer.CLIENT_EXCEPTION + exception.getMessage()));
+    }
+  };
+
+  //Constructors ****************************************************
+
+  /**
+   * Constructs a server with the given number of accounts.  No client
+   * is connected yet.
+   *
+   * @param accounts The number of accounts.
+   * @exception IOException If the password file could not be written.
+   */
+  ServerFixture(int accounts) throws IOException
+  {
+    server = new EchoServer(new ObservableOriginatorServer(0),
+      passwordFile(accounts));
+  }
+
+  //Class methods ***************************************************
+
+  /**
+   * Writes a password file, which is deleted when the program ends.
+   *
+   * @param accounts The number of accounts.
+   * @return The path of the file.
+   * @exception IOException If the file could not be written.
+   */
+  static String passwordFile(int accounts) throws IOException
+  {
+    Path passwords = Files.createTempFile("passwords", ".txt");
+    StringBuilder file = new StringBuilder();
+
+    passwords.toFile().deleteOnExit();
+    for (int i = 0; i < accounts; i++)
+      file.append(name(i)).append(' ').append(PASSWORD).append("\r\n");
+    Files.write(passwords,
+      file.toString().getBytes(StandardCharsets.ISO_8859_1));
+    return passwords.toString();
+  }
+
+  /**
+   * Returns the loginID of an account.
+   *
+   * @param account The number of the account.
+   */
+  static String name(int account)
+  {
+    return "user" + account;
+  }
+
+  //Instance methods ************************************************
+
+  /**
+   * Connects a client, which is asked for its loginID.
+   *
+   * @param keep Indicates what the server sends the client is kept.
+   */
+  LoopbackClient connect(boolean keep) throws IOException
+  {
+    LoopbackClient client = new LoopbackClient(clients, connections, keep);
+
+    send(client, ObservableServer.CLIENT_CONNECTED);
+    return client;
+  }
+
+  /**
+   * Connects a client and logs it in.
+   *
+   * @param loginID The loginID of the client's account.
+   * @param keep Indicates what the server sends the client is kept.
+   */
+  LoopbackClient login(String loginID, boolean keep) throws IOException
+  {
+    LoopbackClient client = connect(keep);
+
+    send(client, loginID);
+    send(client, PASSWORD);
+    return client;
+  }
+
+  /**
+   * Passes a line sent by a client to the server.
+   *
+   * @param client The client.
+   * @param line The line.
+   */
+  void send(LoopbackClient client, String line)
+  {
+    server.update(null, new OriginatorMessage(client.getConnection(), line));
+  }
+
+  /**
+   * Closes a client's connection, which tells the server.
+   *
+   * @param client The client.
+   */
+  void disconnect(LoopbackClient client)
+  {
+    try
+    {
+      client.getConnection().close();
+    }
+    catch (IOException e) {}
+  }
+
+  /**
+   * Returns the connections of the clients, as the server's
+   * getClientConnections would.
+   */
+  Thread[] getClientConnections()
+  {
+    Thread[] connections = new Thread[clients.activeCount()];
+
+    clients.enumerate(connections);
+    return connections;
+  }
+
+  /**
+   * Waits for a client to be sent a message.
+   *
+   * @param client The client.
+   * @param message The message.
+   * @param millis The longest time to wait, in milliseconds.
+   * @return false if the message was not sent in time.
+   */
+  boolean await(LoopbackClient client, Object message, long millis)
+    throws IOException, InterruptedException
+  {
+    long deadline = System.currentTimeMillis() + millis;
+
+    while (!client.getMessages().contains(message))
+    {
+      if (System.currentTimeMillis() > deadline)
+        return false;
+      Thread.sleep(5);
+    }
+    return true;
+  }
+}
+//End of ServerFixture class